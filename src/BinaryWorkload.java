@@ -0,0 +1,382 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Compact binary encoding of Store commands, so a workload is parsed from
+ * text once and replayed many times.
+ * <p/>
+ * A file starts with the 4 byte magic "MDSW" and one version byte, then one
+ * record per command: an opcode byte (same codes as CommandParser) followed by
+ * its operands. Ids, prices and price bounds are unsigned varints, name parts
+ * and hike rates are zigzag varints, and a name is its length as varint
+ * followed by the parts. Insert with name length 0 is a price update.
+ * <pre>
+ *     Insert           op id price len part...
+ *     Find / Delete    op id
+ *     FindMinPrice     op n
+ *     FindMaxPrice     op n
+ *     FindPriceRange   op n low high
+ *     PriceHike        op l h r
+ * </pre>
+ */
+public class BinaryWorkload {
+
+    static final int MAGIC = ('M' << 24) | ('D' << 16) | ('S' << 8) | 'W';
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 5;
+
+    // opcode and up to three varints
+    static final int MAX_RECORD_HEAD = 1 + 3 * 10;
+    // longest name whose Insert record size still fits in an int
+    private static final int MAX_NAME_LENGTH = (Integer.MAX_VALUE - MAX_RECORD_HEAD) / 10;
+
+    private static final int MAP_WINDOW = 1 << 28;
+    private static final int WRITE_BUFFER = 1 << 20;
+
+    /**
+     * **********************************************************************
+     * Varint coding
+     * ***********************************************************************
+     */
+
+    static void putVarLong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static long getVarLong(ByteBuffer in) {
+        long result = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            result |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return result;
+    }
+
+    static void putZigZag(ByteBuffer out, long value) {
+        putVarLong(out, (value << 1) ^ (value >> 63));
+    }
+
+    static long getZigZag(ByteBuffer in) {
+        long v = getVarLong(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * **********************************************************************
+     * Record encoding
+     * ***********************************************************************
+     */
+
+    // max bytes of an Insert record with given name length
+    static int maxInsertSize(int nameLength) {
+        return MAX_RECORD_HEAD + nameLength * 10;
+    }
+
+    /**
+     * @param name null for price update
+     */
+    static void putInsert(ByteBuffer out, long id, long price, long[] name) {
+        out.put((byte) CommandParser.INSERT);
+        putVarLong(out, id);
+        putVarLong(out, price);
+        if (name == null) {
+            putVarLong(out, 0);
+            return;
+        }
+        putVarLong(out, name.length);
+        for (long part : name) {
+            putZigZag(out, part);
+        }
+    }
+
+    static void putFind(ByteBuffer out, long id) {
+        out.put((byte) CommandParser.FIND);
+        putVarLong(out, id);
+    }
+
+    static void putDelete(ByteBuffer out, long id) {
+        out.put((byte) CommandParser.DELETE);
+        putVarLong(out, id);
+    }
+
+    static void putFindMinPrice(ByteBuffer out, long n) {
+        out.put((byte) CommandParser.FIND_MIN_PRICE);
+        putZigZag(out, n);
+    }
+
+    static void putFindMaxPrice(ByteBuffer out, long n) {
+        out.put((byte) CommandParser.FIND_MAX_PRICE);
+        putZigZag(out, n);
+    }
+
+    static void putFindPriceRange(ByteBuffer out, long n, long low, long high) {
+        out.put((byte) CommandParser.FIND_PRICE_RANGE);
+        putZigZag(out, n);
+        putVarLong(out, low);
+        putVarLong(out, high);
+    }
+
+    static void putPriceHike(ByteBuffer out, long l, long h, int r) {
+        out.put((byte) CommandParser.PRICE_HIKE);
+        putVarLong(out, l);
+        putVarLong(out, h);
+        putZigZag(out, r);
+    }
+
+    /**
+     * Decode the record at in's position and run it against store
+     * @param in     positioned at a record, the record must be entirely in buffer
+     * @param store  target store
+     * @param output units in [0] and cents in [1], same as Store.run
+     */
+    static void apply(ByteBuffer in, Store store, long[] output) {
+        int op = in.get();
+        switch (op) {
+            case CommandParser.INSERT: {
+                long id = getVarLong(in);
+                long price = getVarLong(in);
+                long nameLength = getVarLong(in);
+                // every part takes at least one byte
+                if (nameLength < 0 || nameLength > in.remaining()) {
+                    throw new BufferUnderflowException();
+                }
+                long[] name = null;
+                if (nameLength > 0) {
+                    name = new long[(int) nameLength];
+                    for (int i = 0; i < nameLength; i++) {
+                        name[i] = getZigZag(in);
+                    }
+                }
+                output[0] += store.insert(id, price, name);
+                break;
+            }
+            case CommandParser.FIND:
+                output[1] += store.find(getVarLong(in));
+                break;
+            case CommandParser.DELETE:
+                output[0] += store.delete(getVarLong(in));
+                break;
+            case CommandParser.FIND_MIN_PRICE:
+                output[1] += store.findMinPrice(getZigZag(in));
+                break;
+            case CommandParser.FIND_MAX_PRICE:
+                output[1] += store.findMaxPrice(getZigZag(in));
+                break;
+            case CommandParser.FIND_PRICE_RANGE: {
+                long n = getZigZag(in);
+                long low = getVarLong(in);
+                long high = getVarLong(in);
+                output[0] += store.findPriceRange(n, low, high);
+                break;
+            }
+            case CommandParser.PRICE_HIKE: {
+                long l = getVarLong(in);
+                long h = getVarLong(in);
+                int r = (int) getZigZag(in);
+                output[1] += store.priceHike(l, h, r);
+                break;
+            }
+            default:
+                throw new IllegalStateException("Unknown opcode " + op + " at " + (in.position() - 1));
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Convert and replay
+     * ***********************************************************************
+     */
+
+    /**
+     * Convert a text command file into binary format
+     * @param text   command file in Store.main format
+     * @param binary output file, replaced if exists
+     * @return number of commands written
+     * @throws IOException if reading or writing fails
+     */
+    public static long convert(Path text, Path binary) throws IOException {
+        CommandParser parser = CommandParser.open(text);
+        FileChannel channel = FileChannel.open(binary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER);
+        out.putInt(MAGIC);
+        out.put(VERSION);
+
+        long count = 0;
+        int cmd;
+        while ((cmd = parser.nextCommand()) != CommandParser.END) {
+            if (out.remaining() < MAX_RECORD_HEAD) {
+                drain(channel, out);
+            }
+
+            switch (cmd) {
+                case CommandParser.INSERT: {
+                    long id = parser.nextLong();
+                    long price = parser.nextPrice();
+                    long[] name = parser.nextName();
+                    int size = maxInsertSize(name == null ? 0 : name.length);
+                    if (out.remaining() < size) {
+                        drain(channel, out);
+                        if (out.capacity() < size) {
+                            throw new IOException("Name too long in command " + count);
+                        }
+                    }
+                    putInsert(out, id, price, name);
+                    break;
+                }
+                case CommandParser.FIND:
+                    putFind(out, parser.nextLong());
+                    break;
+                case CommandParser.DELETE:
+                    putDelete(out, parser.nextLong());
+                    break;
+                case CommandParser.FIND_MIN_PRICE:
+                    putFindMinPrice(out, parser.nextLong());
+                    break;
+                case CommandParser.FIND_MAX_PRICE:
+                    putFindMaxPrice(out, parser.nextLong());
+                    break;
+                case CommandParser.FIND_PRICE_RANGE: {
+                    long n = parser.nextLong();
+                    long low = parser.nextPrice();
+                    long high = parser.nextPrice();
+                    putFindPriceRange(out, n, low, high);
+                    break;
+                }
+                case CommandParser.PRICE_HIKE: {
+                    long l = parser.nextLong();
+                    long h = parser.nextLong();
+                    int r = (int) parser.nextLong();
+                    putPriceHike(out, l, h, r);
+                    break;
+                }
+            }
+            count++;
+        }
+
+        drain(channel, out);
+        channel.close();
+        parser.close();
+        return count;
+    }
+
+    // write out everything in buffer and clear it
+    static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Run every command of a binary workload against store
+     * @param binary binary workload file, memory mapped
+     * @param store  target store
+     * @return accumulated output, units in [0] and cents in [1], same as Store.run
+     * @throws IOException if file can not be mapped or is not a workload
+     */
+    public static long[] replay(Path binary, Store store) throws IOException {
+        FileChannel channel = FileChannel.open(binary, StandardOpenOption.READ);
+        long[] output = new long[2];
+        try {
+            replay(channel, store, output);
+        } finally {
+            channel.close();
+        }
+        return output;
+    }
+
+    /**
+     * Run every record of channel against store, window by window
+     * @throws IOException if file can not be mapped, is not a workload, or has a
+     *                     bad record
+     */
+    private static void replay(FileChannel channel, Store store, long[] output) throws IOException {
+        long size = channel.size();
+
+        ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAP_WINDOW));
+        if (size < HEADER_SIZE || in.getInt() != MAGIC || in.get() != VERSION) {
+            throw new IOException("Not a binary workload");
+        }
+
+        long base = 0;      // offset in file of index 0 of in
+        while (base + in.position() < size) {
+            int mark = in.position();
+            try {
+                // remap when the next record may cross the end of window
+                if (in.remaining() < MAX_RECORD_HEAD && base + in.limit() < size) {
+                    base += in.position();
+                    in = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base, MAP_WINDOW));
+                    mark = 0;
+                }
+                if (in.get(in.position()) == CommandParser.INSERT) {
+                    int nameLength = peekNameLength(in, base, size);
+                    if (in.remaining() < maxInsertSize(nameLength) && base + in.limit() < size) {
+                        base += in.position();
+                        in = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base, MAP_WINDOW));
+                        mark = 0;
+                    }
+                }
+                // a record is decoded entirely before it touches store
+                apply(in, store, output);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated record at " + (base + mark));
+            } catch (IllegalStateException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Name length of the Insert record at in's position, position is not moved
+     * @param base offset in file of index 0 of in
+     * @param size size of file
+     * @throws IllegalStateException if the length can not be right: every part
+     *                               takes at least one byte of the file
+     */
+    private static int peekNameLength(ByteBuffer in, long base, long size) {
+        int mark = in.position();
+        in.get();
+        getVarLong(in);
+        getVarLong(in);
+        long nameLength = getVarLong(in);
+        in.position(mark);
+        if (nameLength < 0 || nameLength > size - base - mark || nameLength > MAX_NAME_LENGTH) {
+            throw new IllegalStateException("Bad name length " + nameLength + " at " + (base + mark));
+        }
+        return (int) nameLength;
+    }
+
+    /**
+     * java BinaryWorkload convert input.txt output.bin
+     * java BinaryWorkload replay input.bin
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length == 3 && args[0].equals("convert")) {
+                long count = convert(Paths.get(args[1]), Paths.get(args[2]));
+                System.out.println(count + " commands written");
+            } else if (args.length == 2 && args[0].equals("replay")) {
+                long[] output = replay(Paths.get(args[1]), new Store());
+                System.out.println(Store.outputToStr(output));
+            } else {
+                System.out.println("Usage: BinaryWorkload convert <text> <binary> | replay <binary>");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,350 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Byte level parser of the Store command format, one command per line:
+ * <pre>
+ *     Insert id price name... 0
+ *     Find id
+ *     Delete id
+ *     FindMinPrice n
+ *     FindMaxPrice n
+ *     FindPriceRange n low high
+ *     PriceHike l h r
+ * </pre>
+ * A file is memory mapped window by window, stdin is read into one large direct
+ * buffer. Tokens are decoded straight from the bytes into primitives, so no
+ * String or array is created per line, except the name array of Insert which
+ * is kept by the item.
+ * <p/>
+ * Lines starting with '#' are skipped, an empty line ends the input.
+ */
+public class CommandParser {
+
+    public static final int END = -1;
+    public static final int INSERT = 1;
+    public static final int FIND = 2;
+    public static final int DELETE = 3;
+    public static final int FIND_MIN_PRICE = 4;
+    public static final int FIND_MAX_PRICE = 5;
+    public static final int FIND_PRICE_RANGE = 6;
+    public static final int PRICE_HIKE = 7;
+
+    private static final byte[][] COMMANDS = new byte[PRICE_HIKE + 1][];
+
+    static {
+        COMMANDS[INSERT] = ascii("Insert");
+        COMMANDS[FIND] = ascii("Find");
+        COMMANDS[DELETE] = ascii("Delete");
+        COMMANDS[FIND_MIN_PRICE] = ascii("FindMinPrice");
+        COMMANDS[FIND_MAX_PRICE] = ascii("FindMaxPrice");
+        COMMANDS[FIND_PRICE_RANGE] = ascii("FindPriceRange");
+        COMMANDS[PRICE_HIKE] = ascii("PriceHike");
+    }
+
+    private static final int MAP_WINDOW = 1 << 28;     // bytes of file mapped at once
+    private static final int STDIN_BUFFER = 1 << 24;
+
+    private final FileChannel file;             // null when reading a stream
+    private final ReadableByteChannel stream;   // null when reading a file
+    private long fileSize;
+    private long base;          // offset in file of buf index 0
+    private boolean eof;        // no more bytes beyond buf limit
+
+    private ByteBuffer buf;
+    private int pos;            // parse position in buf
+    private int lineEnd;        // index of '\n' ending current line, or limit for last line
+
+    private long[] nameScratch = new long[16];
+
+    private CommandParser(FileChannel file, ReadableByteChannel stream) {
+        this.file = file;
+        this.stream = stream;
+        this.lineEnd = -1;
+    }
+
+    /**
+     * @param path command file, memory mapped
+     * @return parser positioned before the first line
+     * @throws IOException if file can not be opened or mapped
+     */
+    public static CommandParser open(Path path) throws IOException {
+        CommandParser parser = new CommandParser(FileChannel.open(path, StandardOpenOption.READ), null);
+        parser.fileSize = parser.file.size();
+        parser.map(0);
+        return parser;
+    }
+
+    /**
+     * @param in command stream, e.g. stdin
+     * @return parser positioned before the first line
+     * @throws IOException if stream can not be read
+     */
+    public static CommandParser open(InputStream in) throws IOException {
+        CommandParser parser = new CommandParser(null, Channels.newChannel(in));
+        parser.buf = ByteBuffer.allocateDirect(STDIN_BUFFER);
+        parser.buf.limit(0);
+        parser.fill();
+        return parser;
+    }
+
+    public void close() throws IOException {
+        if (file != null) {
+            file.close();
+        } else {
+            stream.close();
+        }
+    }
+
+    /**
+     * Move to the next command line
+     * @return command code, END if no more command
+     * @throws IOException if reading fails
+     */
+    public int nextCommand() throws IOException {
+        while (true) {
+            pos = lineEnd + 1;
+            if (!findLine()) {
+                return END;
+            }
+
+            int end = lineEnd;
+            if (end > pos && buf.get(end - 1) == '\r') {
+                end--;
+            }
+            if (end == pos) {
+                // empty line terminates the input
+                return END;
+            }
+            if (buf.get(pos) == '#') {
+                continue;
+            }
+
+            skipBlank();
+            int start = pos;
+            while (pos < lineEnd && !isBlank(buf.get(pos))) {
+                pos++;
+            }
+            int cmd = match(start, pos - start);
+            if (cmd != END) {
+                return cmd;
+            }
+            // unknown command, ignore the line
+        }
+    }
+
+    /**
+     * @return next token of current line as long
+     */
+    public long nextLong() {
+        skipBlank();
+        boolean negative = false;
+        if (pos < lineEnd && buf.get(pos) == '-') {
+            negative = true;
+            pos++;
+        }
+
+        int start = pos;
+        long result = 0;
+        byte b;
+        while (pos < lineEnd && (b = buf.get(pos)) >= '0' && b <= '9') {
+            result = result * 10 + (b - '0');
+            pos++;
+        }
+        if (pos == start || (pos < lineEnd && !isBlank(buf.get(pos)))) {
+            throw new NumberFormatException("Illegal number at byte " + (base + start));
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Next token as price in fixed point, the same as Item.priceStrToLong on
+     * it: split at dots with trailing empty parts dropped, 0 if less than two
+     * parts are left, else the first part times 100 plus the second, read as a
+     * signed long after a '0' is appended to one shorter than two digits.
+     * "1234.56" is 123456L, "1234.5" 123450L, "12." and "12" 0, "3.456" 756L
+     * and "-1.50" -50L
+     * @return price times 100
+     */
+    public long nextPrice() {
+        skipBlank();
+        int start = pos;
+        int dot = -1;
+        while (pos < lineEnd && !isBlank(buf.get(pos))) {
+            if (dot < 0 && buf.get(pos) == '.') {
+                dot = pos;
+            }
+            pos++;
+        }
+        int end = pos;
+        while (end > start && buf.get(end - 1) == '.') {
+            end--;
+        }
+        if (dot < 0 || end <= dot) {
+            // no part after the first dot but empty ones
+            return 0;
+        }
+        int second = dot + 1, secondEnd = second;
+        while (secondEnd < end && buf.get(secondEnd) != '.') {
+            secondEnd++;
+        }
+        return parseLong(start, dot, false) * 100 + parseLong(second, secondEnd, secondEnd - second < 2);
+    }
+
+    // Long.parseLong of bytes [from, to), and a '0' after them if zero is set
+    private long parseLong(int from, int to, boolean zero) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (buf.get(i) == '-' || buf.get(i) == '+')) {
+            negative = buf.get(i++) == '-';
+        }
+        if (i == to && !zero) {
+            throw new NumberFormatException("Illegal price at byte " + (base + from));
+        }
+        // accumulate negatively, so Long.MIN_VALUE fits
+        long result = 0;
+        try {
+            for (; i < to; i++) {
+                byte b = buf.get(i);
+                if (b < '0' || b > '9') {
+                    throw new NumberFormatException("Illegal price at byte " + (base + from));
+                }
+                result = Math.subtractExact(Math.multiplyExact(result, 10), b - '0');
+            }
+            if (zero) {
+                result = Math.multiplyExact(result, 10);
+            }
+            return negative ? result : Math.negateExact(result);
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Price out of range at byte " + (base + from));
+        }
+    }
+
+    /**
+     * Rest of an Insert line is the name followed by one terminating token
+     * @return name array, null if the line carries no name (price update only)
+     */
+    public long[] nextName() {
+        int count = 0;
+        skipBlank();
+        while (pos < lineEnd) {
+            if (count == nameScratch.length) {
+                long[] larger = new long[count << 1];
+                System.arraycopy(nameScratch, 0, larger, 0, count);
+                nameScratch = larger;
+            }
+            nameScratch[count++] = nextLong();
+            skipBlank();
+        }
+
+        int nameLength = count - 1;
+        if (nameLength <= 0) {
+            return null;
+        }
+        long[] name = new long[nameLength];
+        System.arraycopy(nameScratch, 0, name, 0, nameLength);
+        return name;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] bytes = new byte[s.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        return bytes;
+    }
+
+    private static boolean isBlank(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private void skipBlank() {
+        while (pos < lineEnd && isBlank(buf.get(pos))) {
+            pos++;
+        }
+    }
+
+    // command code of the word at [start, start + length), END if unknown
+    private int match(int start, int length) {
+        for (int cmd = INSERT; cmd <= PRICE_HIKE; cmd++) {
+            byte[] word = COMMANDS[cmd];
+            if (word.length != length) {
+                continue;
+            }
+            int i = 0;
+            while (i < length && buf.get(start + i) == word[i]) {
+                i++;
+            }
+            if (i == length) {
+                return cmd;
+            }
+        }
+        return END;
+    }
+
+    /**
+     * Make sure the line starting at pos is entirely in buffer, set lineEnd
+     * @return false if no byte left
+     */
+    private boolean findLine() throws IOException {
+        while (true) {
+            int limit = buf.limit();
+            for (int i = pos; i < limit; i++) {
+                if (buf.get(i) == '\n') {
+                    lineEnd = i;
+                    return true;
+                }
+            }
+            if (eof) {
+                // last line without newline
+                lineEnd = limit;
+                return pos < limit;
+            }
+
+            int carried = limit - pos;
+            if (file != null) {
+                map(base + pos);
+            } else {
+                buf.position(pos);
+                buf.compact();
+                buf.flip();
+                base += pos;
+                pos = 0;
+                fill();
+            }
+            if (buf.limit() == carried && !eof) {
+                throw new IOException("Line longer than buffer at byte " + base);
+            }
+        }
+    }
+
+    // map the window of file starting at offset
+    private void map(long offset) throws IOException {
+        long length = Math.min(MAP_WINDOW, fileSize - offset);
+        buf = file.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        base = offset;
+        pos = 0;
+        eof = offset + length >= fileSize;
+    }
+
+    // read stream until buffer full or end of stream, buffer is kept flipped
+    private void fill() throws IOException {
+        int start = buf.limit();
+        buf.position(start);
+        buf.limit(buf.capacity());
+        while (buf.hasRemaining()) {
+            if (stream.read(buf) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buf.limit(buf.position());
+        buf.position(0);
+    }
+}
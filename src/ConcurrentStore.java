@@ -0,0 +1,131 @@
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Thread safe wrapper of Store for many reader threads and one or more writers.
+ * <p/>
+ * Writes (insert, delete, priceHike) take the write lock of a StampedLock. Reads
+ * (find, findMinPrice, findMaxPrice, findPriceRange) first run without any lock
+ * under an optimistic stamp, and the result is used only if no write happened
+ * meanwhile. A read that raced with a write may have seen the structures half
+ * updated, so any exception it throws is dropped as well. Either way the read is
+ * retried under the read lock.
+ * <p/>
+ * Tree and hash links are plain fields, so a read racing a write may see them
+ * in any mix of old and new values, a cycle through a rotation included. The
+ * reads used here bound their own steps instead of trusting the links: a hash
+ * probe gives up after the table length, and a price tree descent throws past
+ * the height of any red-black tree. findMinPrice and findMaxPrice take cached
+ * nodes and walk nothing. None of them follows the item lists. So an optimistic
+ * read ends within its budget, and a torn one is retried under the lock. Any
+ * read added here must bound its walks the same way.
+ */
+public class ConcurrentStore {
+
+    private final Store store;
+    private final StampedLock lock = new StampedLock();
+    private final boolean optimisticReads;
+
+    public ConcurrentStore() {
+        this(new Store(), true);
+    }
+
+    /**
+     * @param store           store to wrap, must not be used directly afterwards
+     * @param optimisticReads false to always read under read lock
+     */
+    public ConcurrentStore(Store store, boolean optimisticReads) {
+        this.store = store;
+        this.optimisticReads = optimisticReads;
+    }
+
+    public int insert(long id, long price, long[] name) {
+        long stamp = lock.writeLock();
+        try {
+            return store.insert(id, price, name);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public long delete(long id) {
+        long stamp = lock.writeLock();
+        try {
+            return store.delete(id);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public long priceHike(long l, long h, int r) {
+        long stamp = lock.writeLock();
+        try {
+            return store.priceHike(l, h, r);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    public long find(final long id) {
+        return read(new Read() {
+            long run(Store store) {
+                return store.find(id);
+            }
+        });
+    }
+
+    public long findMinPrice(final long n) {
+        return read(new Read() {
+            long run(Store store) {
+                return store.findMinPrice(n);
+            }
+        });
+    }
+
+    public long findMaxPrice(final long n) {
+        return read(new Read() {
+            long run(Store store) {
+                return store.findMaxPrice(n);
+            }
+        });
+    }
+
+    public int findPriceRange(final long n, final long low, final long high) {
+        return (int) read(new Read() {
+            long run(Store store) {
+                return store.findPriceRange(n, low, high);
+            }
+        });
+    }
+
+    /**
+     * One read of the store, run optimistically or under the read lock
+     */
+    private static abstract class Read {
+        abstract long run(Store store);
+    }
+
+    // run read without lock under an optimistic stamp, again under the read lock
+    // if a write happened meanwhile
+    private long read(Read read) {
+        if (optimisticReads) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    long result = read.run(store);
+                    if (lock.validate(stamp)) {
+                        return result;
+                    }
+                } catch (RuntimeException e) {
+                    // torn read under a concurrent write, retry under lock
+                }
+            }
+        }
+
+        long stamp = lock.readLock();
+        try {
+            return read.run(store);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read scaling of ConcurrentStore: 1, 2, 4 ... reader threads run a mix of find,
+ * findMinPrice, findMaxPrice and findPriceRange for a fixed time, while one
+ * writer thread applies insert, delete and priceHike, with optimistic reads and
+ * with read lock only.
+ * <p/>
+ * java ConcurrentStoreBenchmark [size=1000000] [maxThreads=cores] [seconds=5] [writerPauseMicros=10]
+ */
+public class ConcurrentStoreBenchmark {
+
+    static volatile boolean running;
+    static final AtomicLong sinks = new AtomicLong();
+
+    /**
+     * @return reads per second of all readers, and writes per second in [1]
+     */
+    static double[] run(final ConcurrentStore store, final StoreBenchmark.DataSet data, int readers,
+                        long millis, final long writerPauseMicros) throws InterruptedException {
+        final AtomicLong reads = new AtomicLong();
+        final AtomicLong writes = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[readers + 1];
+
+        for (int t = 0; t < readers; t++) {
+            final long seed = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    Random random = new Random(seed);
+                    long count = 0;
+                    long sink = 0;
+                    await(start);
+                    while (running) {
+                        int i = random.nextInt(data.size);
+                        switch (i & 3) {
+                            case 0:
+                                sink += store.find(data.ids[i]);
+                                break;
+                            case 1:
+                                sink += store.findMinPrice(1 + i % data.vocabulary);
+                                break;
+                            case 2:
+                                sink += store.findMaxPrice(1 + i % data.vocabulary);
+                                break;
+                            default:
+                                long low = random.nextInt(500000);
+                                sink += store.findPriceRange(1 + i % data.vocabulary, low, low + 250000);
+                        }
+                        count++;
+                    }
+                    reads.addAndGet(count);
+                    sinks.addAndGet(sink);
+                }
+            };
+        }
+
+        threads[readers] = new Thread() {
+            public void run() {
+                Random random = new Random(-1);
+                long count = 0;
+                await(start);
+                while (running) {
+                    int i = random.nextInt(data.size);
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            // price update
+                            store.insert(data.ids[i], data.prices[i], null);
+                            break;
+                        case 1:
+                            store.delete(data.ids[i]);
+                            store.insert(data.ids[i], data.prices[i], data.names[i].clone());
+                            break;
+                        default:
+                            store.priceHike(data.ids[i], data.ids[i] + 10, 1);
+                    }
+                    count++;
+                    if (writerPauseMicros > 0) {
+                        long until = System.nanoTime() + writerPauseMicros * 1000;
+                        while (System.nanoTime() < until) {
+                            // spin, sleep is far too coarse
+                        }
+                    }
+                }
+                writes.addAndGet(count);
+            }
+        };
+
+        running = true;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        return new double[]{reads.get() / seconds, writes.get() / seconds};
+    }
+
+    static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = Integer.parseInt(StoreBenchmark.param(args, "size", "1000000")[0]);
+        int maxThreads = Integer.parseInt(StoreBenchmark.param(args, "maxThreads",
+                Integer.toString(Runtime.getRuntime().availableProcessors()))[0]);
+        long millis = (long) (Double.parseDouble(StoreBenchmark.param(args, "seconds", "5")[0]) * 1000);
+        long pause = Long.parseLong(StoreBenchmark.param(args, "writerPauseMicros", "10")[0]);
+
+        StoreBenchmark.DataSet data = new StoreBenchmark.DataSet(size, 4, StoreBenchmark.PriceDistribution.UNIFORM, 1);
+        for (boolean optimistic : new boolean[]{true, false}) {
+            ConcurrentStore store = new ConcurrentStore(data.load(), optimistic);
+            // warmup
+            run(store, data, 1, millis / 2, pause);
+            for (int readers = 1; readers <= maxThreads; readers <<= 1) {
+                double[] result = run(store, data, readers, millis, pause);
+                System.out.println(String.format("%-11s readers=%-3d %14.0f reads/s %12.0f reads/s/thread %10.0f writes/s",
+                        optimistic ? "optimistic" : "read-lock", readers, result[0], result[0] / readers, result[1]));
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Store whose mutations survive a restart: every insert, delete and priceHike is
+ * appended to a WriteAheadLog before it runs, and checkpoint writes a snapshot so
+ * the log starts over.
+ * <p/>
+ * A directory holds snapshot-G and wal-G of the latest generation G, the log
+ * holding the calls made after that snapshot. Generation 0 has no snapshot and
+ * starts from an empty store. Opening a directory restores the newest snapshot
+ * and replays its log, then deletes the files of older generations that a
+ * crash in checkpoint left. Like Store, one thread at a time.
+ */
+public class DurableStore implements Closeable {
+
+    private static final String SNAPSHOT = "snapshot-";
+    private static final String WAL = "wal-";
+    // suffix of the file Store.snapshot writes before moving it in place
+    private static final String TEMP = ".tmp";
+
+    private final Path dir;
+    private final int groupCount;
+    private final long groupMillis;
+
+    private Store store;
+    private WriteAheadLog log;
+    private long generation;
+
+    /**
+     * Open or create a store in dir and recover its state
+     * @param dir         directory of snapshots and logs, created if absent
+     * @param groupCount  fsync the log after this many calls, 1 for every call
+     * @param groupMillis also fsync pending calls this often, 0 for count only
+     * @throws IOException if recovery fails
+     */
+    public DurableStore(Path dir, int groupCount, long groupMillis) throws IOException {
+        this.dir = dir;
+        this.groupCount = groupCount;
+        this.groupMillis = groupMillis;
+        Files.createDirectories(dir);
+
+        generation = latestSnapshot();
+        removeStale();
+        Path snapshot = dir.resolve(SNAPSHOT + generation);
+        store = Files.exists(snapshot) ? Store.restore(snapshot) : new Store();
+
+        Path wal = dir.resolve(WAL + generation);
+        if (Files.exists(wal)) {
+            long dropped = WriteAheadLog.replay(wal, store);
+            if (dropped > 0) {
+                System.err.println("Dropped " + dropped + " bytes after the last verified record of " + wal);
+            }
+        }
+        log = new WriteAheadLog(wal, groupCount, groupMillis);
+    }
+
+    // highest generation with a complete snapshot, 0 if none
+    private long latestSnapshot() throws IOException {
+        long latest = 0;
+        DirectoryStream<Path> files = Files.newDirectoryStream(dir, SNAPSHOT + "*");
+        try {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(SNAPSHOT.length());
+                try {
+                    latest = Math.max(latest, Long.parseLong(suffix));
+                } catch (NumberFormatException e) {
+                    // e.g. temporary file of an unfinished snapshot
+                }
+            }
+        } finally {
+            files.close();
+        }
+        return latest;
+    }
+
+    // delete snapshots and logs of older generations, and temporary files of
+    // unfinished snapshots, left by a crash in checkpoint
+    private void removeStale() throws IOException {
+        DirectoryStream<Path> files = Files.newDirectoryStream(dir);
+        try {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                boolean snapshot = name.startsWith(SNAPSHOT);
+                if (!snapshot && !name.startsWith(WAL)) {
+                    continue;
+                }
+                String suffix = name.substring(snapshot ? SNAPSHOT.length() : WAL.length());
+                if (snapshot && suffix.endsWith(TEMP)) {
+                    Files.delete(file);
+                    continue;
+                }
+                try {
+                    if (Long.parseLong(suffix) < generation) {
+                        Files.delete(file);
+                    }
+                } catch (NumberFormatException e) {
+                    // not a file of ours
+                }
+            }
+        } finally {
+            files.close();
+        }
+    }
+
+    public int insert(long id, long price, long[] name) throws IOException {
+        if (name == null && store.item(id) == null) {
+            // would fail in store after it is logged, and then at every recovery
+            throw new IllegalArgumentException("Price update of missing item " + id);
+        }
+        log.logInsert(id, price, name);
+        return store.insert(id, price, name);
+    }
+
+    public long delete(long id) throws IOException {
+        log.logDelete(id);
+        return store.delete(id);
+    }
+
+    public long priceHike(long l, long h, int r) throws IOException {
+        log.logPriceHike(l, h, r);
+        return store.priceHike(l, h, r);
+    }
+
+    public long find(long id) {
+        return store.find(id);
+    }
+
+    public long findMinPrice(long n) {
+        return store.findMinPrice(n);
+    }
+
+    public long findMaxPrice(long n) {
+        return store.findMaxPrice(n);
+    }
+
+    public int findPriceRange(long n, long low, long high) {
+        return store.findPriceRange(n, low, high);
+    }
+
+    /**
+     * Make every call so far durable now, without waiting for the group
+     * @throws IOException if writing fails
+     */
+    public void sync() throws IOException {
+        log.sync();
+    }
+
+    /**
+     * Snapshot the store as the next generation, start its empty log and drop
+     * the files of the previous one. The new snapshot appears complete or not at
+     * all, so a crash at any point leaves the old snapshot and log recoverable,
+     * or the new snapshot with at most an empty log; files of the old generation
+     * or an unfinished snapshot left behind are deleted by the next open.
+     * @throws IOException if writing fails
+     */
+    public void checkpoint() throws IOException {
+        long next = generation + 1;
+        store.snapshot(dir.resolve(SNAPSHOT + next));
+
+        log.close();
+        log = new WriteAheadLog(dir.resolve(WAL + next), groupCount, groupMillis);
+
+        Files.deleteIfExists(dir.resolve(SNAPSHOT + generation));
+        Files.deleteIfExists(dir.resolve(WAL + generation));
+        generation = next;
+    }
+
+    public void close() throws IOException {
+        log.close();
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * LongRedBlackBST put and get against fingerPut, putAscending and fingerGet,
+ * on a sequential id stream (ascending ids with small gaps, as inserted in
+ * batches) and on a random one. Gets run against a tree holding every id of the stream, in stream
+ * order.
+ * <p/>
+ * java FingerSearchBenchmark [size=1000000] [iterations=5] [warmups=3]
+ */
+public class FingerSearchBenchmark {
+
+    static StoreBenchmark.Bench insert(final long[] keys, final boolean finger) {
+        return new StoreBenchmark.Bench() {
+            LongRedBlackBST<Long> tree;
+
+            void setup() {
+                tree = new LongRedBlackBST<Long>();
+            }
+
+            long run(int i) {
+                if (finger) tree.fingerPut(keys[i], keys[i]);
+                else tree.put(keys[i], keys[i]);
+                return tree.size();
+            }
+        };
+    }
+
+    static StoreBenchmark.Bench ascending(final long[] keys) {
+        return new StoreBenchmark.Bench() {
+            LongRedBlackBST<Long> tree;
+
+            void setup() {
+                tree = new LongRedBlackBST<Long>();
+            }
+
+            long run(int i) {
+                tree.putAscending(keys[i], keys[i]);
+                return tree.size();
+            }
+        };
+    }
+
+    static StoreBenchmark.Bench lookup(final long[] keys, final boolean finger) {
+        final LongRedBlackBST<Long> tree = new LongRedBlackBST<Long>();
+        for (long key : keys) {
+            tree.put(key, key);
+        }
+        return new StoreBenchmark.Bench() {
+            long run(int i) {
+                Long val = finger ? tree.fingerGet(keys[i]) : tree.get(keys[i]);
+                return val == null ? 0 : val;
+            }
+        };
+    }
+
+    public static void main(String[] args) {
+        int size = Integer.parseInt(StoreBenchmark.param(args, "size", "1000000")[0]);
+        int iterations = Integer.parseInt(StoreBenchmark.param(args, "iterations", "5")[0]);
+        int warmups = Integer.parseInt(StoreBenchmark.param(args, "warmups", "3")[0]);
+
+        Random random = new Random(1);
+        long[] sequential = new long[size];
+        long[] shuffled = new long[size];
+        long id = 0;
+        for (int i = 0; i < size; i++) {
+            id += 1 + random.nextInt(4);
+            sequential[i] = id;
+            shuffled[i] = id;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long t = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = t;
+        }
+
+        List<StoreBenchmark.Result> results = new ArrayList<StoreBenchmark.Result>();
+        String[] streams = {"sequential", "random"};
+        long[][] keys = {sequential, shuffled};
+        for (int s = 0; s < streams.length; s++) {
+            results.add(StoreBenchmark.measure("put " + streams[s], insert(keys[s], false), size, warmups, iterations));
+            results.add(StoreBenchmark.measure("fingerPut " + streams[s], insert(keys[s], true), size, warmups, iterations));
+            results.add(StoreBenchmark.measure("putAscending " + streams[s], ascending(keys[s]), size, warmups, iterations));
+            results.add(StoreBenchmark.measure("get " + streams[s], lookup(keys[s], false), size, warmups, iterations));
+            results.add(StoreBenchmark.measure("fingerGet " + streams[s], lookup(keys[s], true), size, warmups, iterations));
+        }
+        for (StoreBenchmark.Result result : results) {
+            System.out.println(result);
+        }
+        System.out.println("# blackhole " + StoreBenchmark.blackhole);
+    }
+}
@@ -0,0 +1,582 @@
+import java.util.Arrays;
+
+/**
+ * Points (id, price) of the items of a store, for orthogonal range queries
+ * over id x price.
+ * <p/>
+ * A run is a static set of points sorted by id, with a wavelet matrix over the
+ * rank of every point by price. Counting the points of a run of m in a box
+ * takes binary searches that turn the id range into a range of positions and
+ * the price range into a range of ranks, then O(log m) rank steps; listing
+ * them walks down the matrix to each match, O(log m) per point.
+ * <p/>
+ * Updates follow the logarithmic method. New points gather in a small buffer,
+ * a full buffer becomes a run, and the last two runs are merged while the
+ * older is no more than twice the newer, so there are O(log n) runs and a point
+ * is merged O(log n) times. A run never changes, so a point removed from it
+ * stays there, and its copy is added to a second set of runs that is counted
+ * negatively; the live point of an id is the one holding the stamp the id maps
+ * to. Once removed points outnumber live ones, every run is merged into one
+ * without them.
+ * <p/>
+ * Counting costs O(log^2 n), an update O(log^2 n) amortized. Listing costs
+ * O(log n) per point of the box it meets, removed ones included, which the
+ * merge without them keeps below the number of live points.
+ */
+class IdPriceIndex {
+
+    // points of a buffer before it becomes a run
+    static final int BUFFER = 64;
+
+    private final Runs points = new Runs(true);     // every point added, removed ones too
+    private final Runs removed = new Runs(false);   // copy of every removed point of a run of points
+    private final LongIntHashMap stamps;            // id -> stamp of its live point
+    private int nextStamp;
+    private int size;                               // number of live points
+
+    private IdPriceIndex(int expectedSize) {
+        stamps = new LongIntHashMap(expectedSize);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Index every item on range of cursor, in id order
+     */
+    static IdPriceIndex build(LongCursor<Item> items) {
+        items.reset(Long.MIN_VALUE, Long.MAX_VALUE);
+        long[] ids = new long[16];
+        long[] prices = new long[16];
+        int n = 0;
+        while (items.hasNext()) {
+            Item item = items.next();
+            if (n == ids.length) {
+                ids = Arrays.copyOf(ids, n << 1);
+                prices = Arrays.copyOf(prices, n << 1);
+            }
+            ids[n] = item.id;
+            prices[n++] = item.price;
+        }
+
+        IdPriceIndex index = new IdPriceIndex(n);
+        int[] stamps = new int[n];
+        for (int i = 0; i < n; i++) {
+            stamps[i] = i;
+            index.stamps.put(ids[i], i);
+        }
+        if (n > 0) {
+            index.points.push(Run.of(ids, prices, stamps, n));
+            index.points.size = n;
+        }
+        index.nextStamp = n;
+        index.size = n;
+        return index;
+    }
+
+    /**
+     * **********************************************************************
+     * Updates
+     * ***********************************************************************
+     */
+
+    /**
+     * @param item new item, id not in index
+     */
+    void add(Item item) {
+        int stamp = nextStamp++;
+        stamps.put(item.id, stamp);
+        points.add(item.id, item.price, stamp);
+        size++;
+    }
+
+    /**
+     * @param id    id in index
+     * @param price price of id in index
+     */
+    void remove(long id, long price) {
+        int stamp = stamps.remove(id);
+        size--;
+        if (points.removeBuffered(stamp)) {
+            return;
+        }
+        removed.add(id, price, 0);
+        if (removed.size > size && removed.size > BUFFER) {
+            compact();
+        }
+    }
+
+    /**
+     * @param id       id in index
+     * @param oldPrice price of id in index
+     * @param item     item of id, at its new price
+     */
+    void setPrice(long id, long oldPrice, Item item) {
+        remove(id, oldPrice);
+        add(item);
+    }
+
+    // merge every point run into one without the removed points, stamped by position
+    private void compact() {
+        Run run = points.compact(stamps);
+        stamps.clear();
+        for (int i = 0; i < run.m; i++) {
+            run.stamps[i] = i;
+            stamps.put(run.ids[i], i);
+        }
+        nextStamp = run.m;
+        removed.clear();
+    }
+
+    /**
+     * **********************************************************************
+     * Queries
+     * ***********************************************************************
+     */
+
+    /**
+     * @return number of items with l <= id <= h and low <= price <= high
+     */
+    int count(long l, long h, long low, long high) {
+        if (l > h || low > high) {
+            return 0;
+        }
+        return points.count(l, h, low, high) - removed.count(l, h, low, high);
+    }
+
+    /**
+     * Write ids and prices of items with l <= id <= h and low <= price <= high,
+     * run by run, by price within a run
+     * @return number of items written, no more than ids.length
+     */
+    int list(long l, long h, long low, long high, long[] ids, long[] prices) {
+        if (l > h || low > high) {
+            return 0;
+        }
+        return points.list(l, h, low, high, stamps, ids, prices);
+    }
+
+    /**
+     * **********************************************************************
+     * Runs of one set of points, and the buffer in front of them
+     * ***********************************************************************
+     */
+    private static final class Runs {
+        private Run[] runs = new Run[8];    // oldest first, each more than twice the next
+        private int count;                  // number of runs
+        private final long[] ids = new long[BUFFER];
+        private final long[] prices = new long[BUFFER];
+        private final int[] stamps;         // of buffered points, null if not stamped
+        private int n;                      // number of buffered points
+        int size;                           // number of points
+
+        Runs(boolean stamped) {
+            stamps = stamped ? new int[BUFFER] : null;
+        }
+
+        void add(long id, long price, int stamp) {
+            if (n == BUFFER) {
+                flush();
+            }
+            ids[n] = id;
+            prices[n] = price;
+            if (stamps != null) {
+                stamps[n] = stamp;
+            }
+            n++;
+            size++;
+        }
+
+        // drop the buffered point of stamp, if there is one
+        boolean removeBuffered(int stamp) {
+            for (int i = 0; i < n; i++) {
+                if (stamps[i] == stamp) {
+                    n--;
+                    ids[i] = ids[n];
+                    prices[i] = prices[n];
+                    stamps[i] = stamps[n];
+                    size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // turn the buffer into a run
+        private void flush() {
+            // insertion sort by id, the buffer is small
+            for (int i = 1; i < n; i++) {
+                long id = ids[i], price = prices[i];
+                int stamp = stamps != null ? stamps[i] : 0;
+                int j = i;
+                for (; j > 0 && ids[j - 1] > id; j--) {
+                    ids[j] = ids[j - 1];
+                    prices[j] = prices[j - 1];
+                    if (stamps != null) {
+                        stamps[j] = stamps[j - 1];
+                    }
+                }
+                ids[j] = id;
+                prices[j] = price;
+                if (stamps != null) {
+                    stamps[j] = stamp;
+                }
+            }
+            push(Run.of(Arrays.copyOf(ids, n), Arrays.copyOf(prices, n),
+                    stamps != null ? Arrays.copyOf(stamps, n) : null, n));
+            n = 0;
+        }
+
+        void push(Run run) {
+            while (count > 0 && runs[count - 1].m <= 2 * run.m) {
+                run = Run.merge(runs[--count], run, null);
+                runs[count] = null;
+            }
+            if (count == runs.length) {
+                runs = Arrays.copyOf(runs, count << 1);
+            }
+            runs[count++] = run;
+        }
+
+        // merge buffer and runs into one run, of only the points live in stamps
+        Run compact(LongIntHashMap live) {
+            if (n > 0) {
+                flush();
+            }
+            // newest first, so the merged run grows geometrically
+            Run run = Run.merge(Run.EMPTY, count > 0 ? runs[count - 1] : Run.EMPTY, live);
+            for (int r = count - 2; r >= 0; r--) {
+                run = Run.merge(runs[r], run, live);
+            }
+            clear();
+            if (run.m > 0) {
+                runs[count++] = run;
+                size = run.m;
+            }
+            return run;
+        }
+
+        void clear() {
+            Arrays.fill(runs, 0, count, null);
+            count = 0;
+            n = 0;
+            size = 0;
+        }
+
+        int count(long l, long h, long low, long high) {
+            int found = 0;
+            for (int i = 0; i < n; i++) {
+                if (l <= ids[i] && ids[i] <= h && low <= prices[i] && prices[i] <= high) {
+                    found++;
+                }
+            }
+            for (int r = 0; r < count; r++) {
+                found += runs[r].count(l, h, low, high);
+            }
+            return found;
+        }
+
+        // buffered points are all live, points of runs only if their stamp is in live
+        int list(long l, long h, long low, long high, LongIntHashMap live, long[] outIds, long[] outPrices) {
+            int found = 0;
+            for (int i = 0; i < n && found < outIds.length; i++) {
+                if (l <= ids[i] && ids[i] <= h && low <= prices[i] && prices[i] <= high) {
+                    outIds[found] = ids[i];
+                    outPrices[found++] = prices[i];
+                }
+            }
+            for (int r = 0; r < count && found < outIds.length; r++) {
+                found = runs[r].list(l, h, low, high, live, outIds, outPrices, found);
+            }
+            return found;
+        }
+
+        // number of points, or of the ones live in stamps if live is not null; -1 if broken
+        int check(LongIntHashMap live) {
+            int points = n, alive = n;
+            for (int i = 0; live != null && i < n; i++) {
+                if (live.get(ids[i]) != stamps[i]) return -1;
+            }
+            for (int r = 0; r < count; r++) {
+                Run run = runs[r];
+                if (run.m == 0 || !run.check() || (r > 0 && runs[r - 1].m <= 2 * run.m)) return -1;
+                points += run.m;
+                for (int i = 0; live != null && i < run.m; i++) {
+                    if (live.get(run.ids[i]) == run.stamps[i]) {
+                        alive++;
+                    }
+                }
+            }
+            return points != size ? -1 : (live != null ? alive : points);
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Run of points, static
+     * ***********************************************************************
+     */
+    private static final class Run {
+        static final Run EMPTY = new Run(new long[0], new long[0], new int[0], new int[0], 0);
+
+        final int m;                // number of points
+        final long[] ids;           // ascending
+        final long[] prices;        // price of each id
+        final int[] stamps;         // stamp of each id, null if not stamped
+        final long[] rankPrices;    // prices ascending
+        final int[] rankPos;        // position of the point of each price rank
+        // wavelet matrix over the price rank of each position, high bit first:
+        // bits of each level, ones before each word of them, zeros in them
+        private final int levels;
+        private final long[][] bits;
+        private final int[][] ones;
+        private final int[] zeros;
+
+        private Run(long[] ids, long[] prices, int[] stamps, int[] rankPos, int m) {
+            this.m = m;
+            this.ids = ids.length == m ? ids : Arrays.copyOf(ids, m);
+            this.prices = prices.length == m ? prices : Arrays.copyOf(prices, m);
+            this.stamps = stamps == null || stamps.length == m ? stamps : Arrays.copyOf(stamps, m);
+            this.rankPos = rankPos;
+            rankPrices = new long[m];
+            int[] rank = new int[m];
+            for (int s = 0; s < m; s++) {
+                rankPrices[s] = this.prices[rankPos[s]];
+                rank[rankPos[s]] = s;
+            }
+
+            levels = 32 - Integer.numberOfLeadingZeros(Math.max(m - 1, 1));
+            bits = new long[levels][];
+            ones = new int[levels][];
+            zeros = new int[levels];
+            int[] next = new int[m];
+            for (int k = 0; k < levels; k++) {
+                int shift = levels - 1 - k;
+                long[] words = bits[k] = new long[(m >>> 6) + 1];
+                int z = 0;
+                for (int i = 0; i < m; i++) {
+                    if ((rank[i] >>> shift & 1) == 0) z++;
+                    else words[i >>> 6] |= 1L << i;
+                }
+                int[] before = ones[k] = new int[words.length];
+                for (int w = 1; w < words.length; w++) {
+                    before[w] = before[w - 1] + Long.bitCount(words[w - 1]);
+                }
+                zeros[k] = z;
+                // stable partition, zeros first, is the order of the next level
+                int zi = 0, oi = z;
+                for (int i = 0; i < m; i++) {
+                    if ((rank[i] >>> shift & 1) == 0) next[zi++] = rank[i];
+                    else next[oi++] = rank[i];
+                }
+                int[] t = rank;
+                rank = next;
+                next = t;
+            }
+        }
+
+        // run of m points sorted by id
+        static Run of(long[] ids, long[] prices, int[] stamps, int m) {
+            return new Run(ids, prices, stamps, sortByPrice(prices, m), m);
+        }
+
+        // run of the points of x and y, of only the ones live in stamps if live is not null
+        static Run merge(Run x, Run y, LongIntHashMap live) {
+            int[] xTo = new int[x.m];
+            int[] yTo = new int[y.m];
+            int cap = x.m + y.m;
+            long[] ids = new long[cap];
+            long[] prices = new long[cap];
+            int[] stamps = x.stamps != null ? new int[cap] : null;
+            int m = 0;
+            for (int i = 0, j = 0; i < x.m || j < y.m; ) {
+                boolean fromX = j == y.m || (i < x.m && x.ids[i] <= y.ids[j]);
+                Run run = fromX ? x : y;
+                int p = fromX ? i++ : j++;
+                int[] to = fromX ? xTo : yTo;
+                if (live != null && live.get(run.ids[p]) != run.stamps[p]) {
+                    to[p] = -1;
+                    continue;
+                }
+                to[p] = m;
+                ids[m] = run.ids[p];
+                prices[m] = run.prices[p];
+                if (stamps != null) {
+                    stamps[m] = run.stamps[p];
+                }
+                m++;
+            }
+
+            // price ranks merge the same way
+            int[] rankPos = new int[m];
+            int s = 0;
+            for (int i = 0, j = 0; i < x.m || j < y.m; ) {
+                boolean fromX = j == y.m || (i < x.m && x.rankPrices[i] <= y.rankPrices[j]);
+                int to = fromX ? xTo[x.rankPos[i++]] : yTo[y.rankPos[j++]];
+                if (to >= 0) {
+                    rankPos[s++] = to;
+                }
+            }
+            return new Run(ids, prices, stamps, rankPos, m);
+        }
+
+        // ones of level k before position i
+        private int rank1(int k, int i) {
+            return ones[k][i >>> 6] + Long.bitCount(bits[k][i >>> 6] & ((1L << i) - 1));
+        }
+
+        // number of positions on [a, b) with a price rank below v
+        private int countLess(int a, int b, int v) {
+            if (v >= 1L << levels) {
+                return b - a;
+            }
+            int less = 0;
+            for (int k = 0; k < levels && a < b; k++) {
+                int oa = rank1(k, a), ob = rank1(k, b);
+                if ((v >>> (levels - 1 - k) & 1) != 0) {
+                    // zeros here rank below v
+                    less += (b - a) - (ob - oa);
+                    a = zeros[k] + oa;
+                    b = zeros[k] + ob;
+                } else {
+                    a -= oa;
+                    b -= ob;
+                }
+            }
+            return less;
+        }
+
+        int count(long l, long h, long low, long high) {
+            int lo = lowerBound(rankPrices, m, low), hi = upperBound(rankPrices, m, high);
+            if (lo == hi) {
+                return 0;
+            }
+            int a = lowerBound(ids, m, l), b = upperBound(ids, m, h);
+            if (a == 0 && b == m) {
+                return hi - lo;
+            }
+            return a == b ? 0 : countLess(a, b, hi) - countLess(a, b, lo);
+        }
+
+        int list(long l, long h, long low, long high, LongIntHashMap live, long[] outIds, long[] outPrices, int found) {
+            int lo = lowerBound(rankPrices, m, low), hi = upperBound(rankPrices, m, high);
+            int a = lowerBound(ids, m, l), b = upperBound(ids, m, h);
+            if (lo == hi || a == b) {
+                return found;
+            }
+            return list(0, a, b, 0, lo, hi, live, outIds, outPrices, found);
+        }
+
+        // write the live points of positions [a, b) of level k, whose ranks
+        // begin with the bits of prefix above level k, with a rank on [lo, hi)
+        private int list(int k, int a, int b, int prefix, int lo, int hi,
+                         LongIntHashMap live, long[] outIds, long[] outPrices, int found) {
+            long span = 1L << (levels - k);
+            if (a == b || found == outIds.length || prefix >= hi || prefix + span <= lo) {
+                return found;
+            }
+            if (k == levels) {
+                int p = rankPos[prefix];
+                if (live.get(ids[p]) == stamps[p]) {
+                    outIds[found] = ids[p];
+                    outPrices[found++] = prices[p];
+                }
+                return found;
+            }
+            int oa = rank1(k, a), ob = rank1(k, b);
+            found = list(k + 1, a - oa, b - ob, prefix, lo, hi, live, outIds, outPrices, found);
+            return list(k + 1, zeros[k] + oa, zeros[k] + ob, prefix | (int) (span >>> 1), lo, hi,
+                    live, outIds, outPrices, found);
+        }
+
+        // price rank of position p, read down the matrix
+        private int rankOf(int p) {
+            int rank = 0;
+            for (int k = 0; k < levels; k++) {
+                int o = rank1(k, p);
+                if ((bits[k][p >>> 6] >>> p & 1) != 0) {
+                    rank |= 1 << (levels - 1 - k);
+                    p = zeros[k] + o;
+                } else {
+                    p -= o;
+                }
+            }
+            return rank;
+        }
+
+        boolean check() {
+            for (int i = 1; i < m; i++) {
+                if (ids[i - 1] > ids[i] || rankPrices[i - 1] > rankPrices[i]) return false;
+            }
+            for (int s = 0; s < m; s++) {
+                int p = rankPos[s];
+                if (p < 0 || p >= m || rankOf(p) != s || prices[p] != rankPrices[s]) return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Helpers
+     * ***********************************************************************
+     */
+
+    // positions [0, m) ordered by price, stable; bottom up merge sort
+    private static int[] sortByPrice(long[] prices, int m) {
+        int[] pos = new int[m];
+        int[] tmp = new int[m];
+        for (int i = 0; i < m; i++) {
+            pos[i] = i;
+        }
+        for (int width = 1; width < m; width <<= 1) {
+            for (int from = 0; from < m; from += width << 1) {
+                int mid = Math.min(from + width, m), to = Math.min(from + (width << 1), m);
+                int i = from, j = mid, k = from;
+                while (i < mid && j < to) {
+                    tmp[k++] = prices[pos[j]] < prices[pos[i]] ? pos[j++] : pos[i++];
+                }
+                while (i < mid) tmp[k++] = pos[i++];
+                while (j < to) tmp[k++] = pos[j++];
+            }
+            int[] t = pos;
+            pos = tmp;
+            tmp = t;
+        }
+        return pos;
+    }
+
+    // index of the first key >= key in keys[0, n)
+    private static int lowerBound(long[] keys, int n, long key) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // index of the first key > key in keys[0, n)
+    private static int upperBound(long[] keys, int n, long key) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * **********************************************************************
+     * Check integrity of the index
+     * ***********************************************************************
+     */
+    boolean check() {
+        int live = points.check(stamps);
+        int dead = removed.check(null);
+        return live == size && stamps.size() == size && dead >= 0 && dead == points.size - size;
+    }
+}
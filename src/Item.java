@@ -8,12 +8,12 @@ public class Item {
 
     Item[] next; // next item with same price respective to name
     Item[] prev; // prev
+    int[] nextAisle; // aisle of the same list in next item, neighbours are relinked without search
+    int[] prevAisle; // aisle of the same list in prev item, 0 if prev is the head
     Item[] head; // head of item list, efficient to update list size in head
 
+    // used by ItemListHead, which keeps its own single next and prev, no arrays needed
     public Item() {
-        next = new Item[1];
-        prev = new Item[1];
-        head = new Item[1];
     }
 
     public Item(long id, long price, long[] name) {
@@ -23,6 +23,8 @@ public class Item {
 
         next = new Item[this.name.length];
         prev = new Item[this.name.length];
+        nextAisle = new int[this.name.length];
+        prevAisle = new int[this.name.length];
         head = new Item[this.name.length];
     }
 
@@ -37,7 +39,18 @@ public class Item {
      * @return index if found, otherwise -1
      */
     public int whichAisle(long partName) {
-        for (int i = 0; i < name.length; i++) {
+        return whichAisle(partName, 0);
+    }
+
+    /**
+     * The partial name belongs to which aisle, for a name that repeats a part
+     *
+     * @param partName partial name
+     * @param from     first aisle to look at
+     * @return index if found, otherwise -1
+     */
+    public int whichAisle(long partName, int from) {
+        for (int i = from; i < name.length; i++) {
             if (name[i] == partName) {
                 return i;
             }
@@ -45,28 +58,26 @@ public class Item {
         return -1;
     }
 
-    public void setNext(int aisle, Item item) {
-        if (aisle < 0 || aisle >= this.name.length) {
-            return;
-        }
-
+    /**
+     * Link aisle of this item to aisle itemAisle of item
+     * @param aisle     list of this item
+     * @param item      new next in the list, null at the end
+     * @param itemAisle aisle of the same list in item
+     */
+    public void setNext(int aisle, Item item, int itemAisle) {
         this.next[aisle] = item;
+        this.nextAisle[aisle] = itemAisle;
     }
 
-    public void setNext(long partName, Item item) {
-        setNext(whichAisle(partName), item);
-    }
-
-    public void setPrev(int aisle, Item item) {
-        if (aisle < 0 || aisle >= this.name.length) {
-            return;
-        }
-
+    /**
+     * Link aisle of this item back to aisle itemAisle of item
+     * @param aisle     list of this item
+     * @param item      new prev in the list, the head at the front
+     * @param itemAisle aisle of the same list in item, 0 for the head
+     */
+    public void setPrev(int aisle, Item item, int itemAisle) {
         this.prev[aisle] = item;
-    }
-
-    public void setPrev(long partName, Item item) {
-        setPrev(whichAisle(partName), item);
+        this.prevAisle[aisle] = itemAisle;
     }
 
     public String getPriceStr() {
@@ -121,26 +132,21 @@ public class Item {
     }
 
     /**
-     * Detach from item doublt linked list
-     * @param partName partial name
+     * Detach from item doublt linked list, in constant time as both
+     * neighbours are linked by their aisle
+     * @param aisle index of the partial name in name
      * @return size of updated list
      */
-    public int detachFromList(long partName) {
-        int aisle = this.whichAisle(partName);
-        if (aisle < 0) {
-            System.out.println("Logical error");
-            return 0;
-        }
-
+    public int detachFromList(int aisle) {
         if (this.prev[aisle] == null) {
             return 0; // Because of head, it is impossible
         }
 
         // for prev
-        this.prev[aisle].setNext(partName, this.next[aisle]);
+        this.prev[aisle].setNext(this.prevAisle[aisle], this.next[aisle], this.nextAisle[aisle]);
         // for next
         if (this.next[aisle] != null) {
-            this.next[aisle].setPrev(partName, this.prev[aisle]);
+            this.next[aisle].setPrev(this.nextAisle[aisle], this.prev[aisle], this.prevAisle[aisle]);
         }
 
         // for size
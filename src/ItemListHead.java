@@ -6,43 +6,37 @@ public class ItemListHead extends Item {
     int size;
     Item next;
     Item prev;
+    int nextAisle;  // aisle of this list in next
 
-    public ItemListHead() {
+    /**
+     * @param price price of every item in the list, kept in the price field
+     *              so a list can be found in its price tree from any of them
+     */
+    public ItemListHead(long price) {
         super();
+        this.price = price;
         size = 0;
     }
 
     /**
-     * Add the item just after the head, because we can't be sure that which proper pointer of item is.
-     * we need to search on partial name
+     * Add the item just after the head, linked through the given aisle of item
+     * and the aisle of the old first item kept in head, so no search on name
      * @param item to be added
-     * @param partName same price, same partial name
+     * @param aisle index in item.name of the partial name of this list
      */
-    public void addFirst(Item item, long partName) {
-
-        int aisle = item.whichAisle(partName);
-
-        if (aisle < 0) {
-            return;
-        }
-
+    public void addFirst(Item item, int aisle) {
         // for the old next
         if (this.next != null) {
-            int nextAisle = this.next.whichAisle(partName);
-            if (nextAisle < 0) {
-                System.out.println("Logical error");
-                System.exit(0);
-            }
-
-            this.next.prev[nextAisle] = item;
+            this.next.setPrev(this.nextAisle, item, aisle);
         }
 
         // for the item
-        item.next[aisle] = this.next;
-        item.prev[aisle] = this;
+        item.setNext(aisle, this.next, this.nextAisle);
+        item.setPrev(aisle, this, 0);
 
         // for head
         this.next = item;
+        this.nextAisle = aisle;
 
         // head of list
         item.head[aisle] = this;
@@ -52,22 +46,13 @@ public class ItemListHead extends Item {
     }
 
     @Override
-    public void setNext(int aisle, Item item) {
+    public void setNext(int aisle, Item item, int itemAisle) {
         this.next = item;
+        this.nextAisle = itemAisle;
     }
 
     @Override
-    public void setNext(long partName, Item item) {
-        this.next = item;
-    }
-
-    @Override
-    public void setPrev(int aisle, Item item) {
-        this.prev = item;
-    }
-
-    @Override
-    public void setPrev(long partName, Item item) {
+    public void setPrev(int aisle, Item item, int itemAisle) {
         this.prev = item;
     }
 
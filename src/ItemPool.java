@@ -0,0 +1,205 @@
+import java.util.Arrays;
+
+/**
+ * Struct of arrays storage of items, addressed by int handle.
+ * <p/>
+ * Per item columns hold id, price and where its name starts and how long it is.
+ * A name of length k takes k consecutive slots, and per slot columns hold the
+ * name part and the links to the slots of the prev and next item in the same
+ * (name part, price) list, so a slot plays the role of one aisle of Item.
+ * <p/>
+ * Handles and slot runs of removed items are reused through free lists, a slot
+ * run is only reused by a name of the same length.
+ */
+public class ItemPool {
+
+    public static final int NIL = -1;
+
+    // item columns, indexed by handle
+    private long[] ids;
+    private long[] prices;
+    private int[] nameOffset;
+    private int[] nameLength;
+    private int handleTop;      // handles in [0, handleTop) were used once
+    private int[] freeHandles;
+    private int freeHandleCount;
+
+    // slot columns, indexed by slot
+    private long[] parts;
+    private int[] next;         // slot of next item with same part and price, NIL at end
+    private int[] prev;         // slot of prev item with same part and price, NIL at first
+    private int slotTop;        // slots in [0, slotTop) were used once
+    private int[] freeRuns;     // first free run of each name length, chained through next
+
+    private int size;
+
+    public ItemPool() {
+        this(16);
+    }
+
+    /**
+     * @param expectedItems number of items to hold before growing
+     */
+    public ItemPool(int expectedItems) {
+        int capacity = Math.max(expectedItems, 16);
+        ids = new long[capacity];
+        prices = new long[capacity];
+        nameOffset = new int[capacity];
+        nameLength = new int[capacity];
+        freeHandles = new int[16];
+
+        parts = new long[capacity * 2];
+        next = new int[capacity * 2];
+        prev = new int[capacity * 2];
+        freeRuns = new int[16];
+        Arrays.fill(freeRuns, NIL);
+    }
+
+    /**
+     * Store a new item
+     * @param id    id
+     * @param price price
+     * @param name  name array, copied into slots
+     * @return handle of item
+     */
+    public int allocate(long id, long price, long[] name) {
+        int h;
+        if (freeHandleCount > 0) {
+            h = freeHandles[--freeHandleCount];
+        } else {
+            if (handleTop == ids.length) {
+                growItems();
+            }
+            h = handleTop++;
+        }
+
+        int k = name.length;
+        int offset = allocateRun(k);
+        for (int i = 0; i < k; i++) {
+            parts[offset + i] = name[i];
+            next[offset + i] = NIL;
+            prev[offset + i] = NIL;
+        }
+
+        ids[h] = id;
+        prices[h] = price;
+        nameOffset[h] = offset;
+        nameLength[h] = k;
+        size++;
+        return h;
+    }
+
+    /**
+     * Release the handle and the name slots, links must already be detached
+     * @param h handle of a live item
+     */
+    public void free(int h) {
+        int k = nameLength[h];
+        if (k >= freeRuns.length) {
+            int old = freeRuns.length;
+            freeRuns = Arrays.copyOf(freeRuns, Math.max(k + 1, old << 1));
+            Arrays.fill(freeRuns, old, freeRuns.length, NIL);
+        }
+        if (k > 0) {
+            int offset = nameOffset[h];
+            next[offset] = freeRuns[k];
+            freeRuns[k] = offset;
+        }
+
+        if (freeHandleCount == freeHandles.length) {
+            freeHandles = Arrays.copyOf(freeHandles, freeHandleCount << 1);
+        }
+        freeHandles[freeHandleCount++] = h;
+        size--;
+    }
+
+    // offset of k consecutive free slots
+    private int allocateRun(int k) {
+        if (k < freeRuns.length && freeRuns[k] != NIL) {
+            int offset = freeRuns[k];
+            freeRuns[k] = next[offset];
+            return offset;
+        }
+
+        while (slotTop + k > parts.length) {
+            growSlots();
+        }
+        int offset = slotTop;
+        slotTop += k;
+        return offset;
+    }
+
+    private void growItems() {
+        int capacity = ids.length + (ids.length >> 1);
+        ids = Arrays.copyOf(ids, capacity);
+        prices = Arrays.copyOf(prices, capacity);
+        nameOffset = Arrays.copyOf(nameOffset, capacity);
+        nameLength = Arrays.copyOf(nameLength, capacity);
+    }
+
+    private void growSlots() {
+        int capacity = parts.length + (parts.length >> 1);
+        parts = Arrays.copyOf(parts, capacity);
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+    }
+
+    /**
+     * @return number of live items
+     */
+    public int size() {
+        return size;
+    }
+
+    public long id(int h) {
+        return ids[h];
+    }
+
+    public long price(int h) {
+        return prices[h];
+    }
+
+    public void setPrice(int h, long price) {
+        prices[h] = price;
+    }
+
+    public int nameLength(int h) {
+        return nameLength[h];
+    }
+
+    /**
+     * @param h     handle
+     * @param aisle index in name
+     * @return slot of that name part
+     */
+    public int slot(int h, int aisle) {
+        return nameOffset[h] + aisle;
+    }
+
+    public long part(int slot) {
+        return parts[slot];
+    }
+
+    public int next(int slot) {
+        return next[slot];
+    }
+
+    public int prev(int slot) {
+        return prev[slot];
+    }
+
+    public void setNext(int slot, int nextSlot) {
+        next[slot] = nextSlot;
+    }
+
+    public void setPrev(int slot, int prevSlot) {
+        prev[slot] = prevSlot;
+    }
+
+    /**
+     * @return bytes held by the columns, for comparison with object storage
+     */
+    public long footprint() {
+        return 24L * ids.length + 4L * freeHandles.length + 16L * parts.length + 4L * freeRuns.length;
+    }
+}
@@ -0,0 +1,538 @@
+/*************************************************************************
+ *  A B+tree symbol table specialized for primitive long keys.
+ *
+ *  Every node holds up to order keys in one long array, so a search reads
+ *  a few contiguous cache lines per level instead of one node per key as a
+ *  binary tree does, and the tree is only log base order of n deep. Values
+ *  live in the leaves only, and the leaves are linked in key order, so a
+ *  range scan descends once and then walks the leaf arrays sequentially.
+ *
+ *  Inner node i with n keys has n + 1 children; every key in child c is
+ *  below keys[c] and at least keys[c - 1]. Deletion is merge-at-empty: a
+ *  leaf is unlinked when its last key goes and nodes are never rebalanced,
+ *  so the separators stay valid bounds and the height never grows by it.
+ *
+ *************************************************************************/
+
+import java.util.NoSuchElementException;
+
+public class LongBPlusTree<Value> implements LongOrderedIndex<Value> {
+
+    // 64 keys are 8 cache lines of 64 bytes, one binary search touches 3 of them
+    public static final int DEFAULT_ORDER = 64;
+
+    private final int order;    // max keys per node
+    private Node root;          // null if empty
+    private Leaf first;         // leftmost leaf, null if empty
+    private Leaf last;          // rightmost leaf, null if empty
+    private int size;
+
+    // set by insert when a node splits: the separator and the new right sibling
+    private long splitKey;
+
+    private static abstract class Node {
+        int n;                  // number of keys
+        final long[] keys;
+
+        Node(int capacity) {
+            keys = new long[capacity];
+        }
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] vals;
+        Leaf prev, next;
+
+        // one slot more than order, a full leaf takes the key then splits
+        Leaf(int order) {
+            super(order + 1);
+            vals = new Object[order + 1];
+        }
+    }
+
+    private static final class Inner extends Node {
+        final Node[] children;
+
+        Inner(int order) {
+            super(order + 1);
+            children = new Node[order + 2];
+        }
+    }
+
+    public LongBPlusTree() {
+        this(DEFAULT_ORDER);
+    }
+
+    /**
+     * @param order max number of keys in a node, at least 3
+     */
+    public LongBPlusTree(int order) {
+        if (order < 3) {
+            throw new IllegalArgumentException("Order " + order + " below 3");
+        }
+        this.order = order;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return number of levels, 0 if empty
+     */
+    public int height() {
+        int h = 0;
+        for (Node x = root; x != null; x = x instanceof Inner ? ((Inner) x).children[0] : null) {
+            h++;
+        }
+        return h;
+    }
+
+    /**
+     * @return smallest key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public long min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return first.keys[0];
+    }
+
+    /**
+     * @return largest key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public long max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        return last.keys[last.n - 1];
+    }
+
+    /**
+     * **********************************************************************
+     * Search
+     * ***********************************************************************
+     */
+
+    // index of the first key >= key in keys[0, n), n if none
+    private static int lowerBound(long[] keys, int n, long key) {
+        int lo = 0, hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // index of the child of x whose range holds key: number of separators <= key
+    private static int childIndex(Inner x, long key) {
+        int lo = 0, hi = x.n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (x.keys[mid] <= key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // leaf whose range holds key, null if empty
+    private Leaf leafOf(long key) {
+        Node x = root;
+        while (x instanceof Inner) {
+            Inner inner = (Inner) x;
+            x = inner.children[childIndex(inner, key)];
+        }
+        return (Leaf) x;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Value get(long key) {
+        Leaf leaf = leafOf(key);
+        if (leaf == null) {
+            return null;
+        }
+        int i = lowerBound(leaf.keys, leaf.n, key);
+        return i < leaf.n && leaf.keys[i] == key ? (Value) leaf.vals[i] : null;
+    }
+
+    public boolean contains(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * **********************************************************************
+     * Insertion
+     * ***********************************************************************
+     */
+
+    public void put(long key, Value val) {
+        if (root == null) {
+            root = first = last = new Leaf(order);
+        }
+        Node right = insert(root, key, val);
+        if (right != null) {
+            Inner newRoot = new Inner(order);
+            newRoot.keys[0] = splitKey;
+            newRoot.children[0] = root;
+            newRoot.children[1] = right;
+            newRoot.n = 1;
+            root = newRoot;
+        }
+    }
+
+    // insert in the subtree of x; the new right sibling of x if it split, with
+    // its separator in splitKey, null otherwise
+    private Node insert(Node x, long key, Value val) {
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x;
+            int i = lowerBound(leaf.keys, leaf.n, key);
+            if (i < leaf.n && leaf.keys[i] == key) {
+                leaf.vals[i] = val;
+                return null;
+            }
+            System.arraycopy(leaf.keys, i, leaf.keys, i + 1, leaf.n - i);
+            System.arraycopy(leaf.vals, i, leaf.vals, i + 1, leaf.n - i);
+            leaf.keys[i] = key;
+            leaf.vals[i] = val;
+            leaf.n++;
+            size++;
+            return leaf.n > order ? split(leaf, i == leaf.n - 1) : null;
+        }
+
+        Inner inner = (Inner) x;
+        int c = childIndex(inner, key);
+        Node right = insert(inner.children[c], key, val);
+        if (right == null) {
+            return null;
+        }
+        System.arraycopy(inner.keys, c, inner.keys, c + 1, inner.n - c);
+        System.arraycopy(inner.children, c + 1, inner.children, c + 2, inner.n - c);
+        inner.keys[c] = splitKey;
+        inner.children[c + 1] = right;
+        inner.n++;
+        return inner.n > order ? split(inner, c == inner.n - 1) : null;
+    }
+
+    // split an overfull leaf; appending at the end of the last leaf moves only
+    // the new key, so ascending ids fill leaves instead of leaving them half full
+    private Leaf split(Leaf leaf, boolean append) {
+        int from = append && leaf == last ? leaf.n - 1 : leaf.n >>> 1;
+        Leaf right = new Leaf(order);
+        right.n = leaf.n - from;
+        System.arraycopy(leaf.keys, from, right.keys, 0, right.n);
+        System.arraycopy(leaf.vals, from, right.vals, 0, right.n);
+        for (int i = from; i < leaf.n; i++) leaf.vals[i] = null;
+        leaf.n = from;
+
+        right.prev = leaf;
+        right.next = leaf.next;
+        if (leaf.next != null) leaf.next.prev = right;
+        else last = right;
+        leaf.next = right;
+
+        splitKey = right.keys[0];
+        return right;
+    }
+
+    // split an overfull inner node, its middle key moves up; an append on the
+    // right spine keeps the left node full as for leaves
+    private Inner split(Inner inner, boolean append) {
+        int mid = append && isRightSpine(inner) ? inner.n - 1 : inner.n >>> 1;
+        Inner right = new Inner(order);
+        right.n = inner.n - mid - 1;
+        System.arraycopy(inner.keys, mid + 1, right.keys, 0, right.n);
+        System.arraycopy(inner.children, mid + 1, right.children, 0, right.n + 1);
+        for (int i = mid + 1; i <= inner.n; i++) inner.children[i] = null;
+        inner.n = mid;
+
+        splitKey = inner.keys[mid];
+        return right;
+    }
+
+    // true if the last leaf is under the last child of x
+    private boolean isRightSpine(Inner x) {
+        Node y = x;
+        while (y instanceof Inner) {
+            Inner i = (Inner) y;
+            y = i.children[i.n];
+        }
+        return y == last;
+    }
+
+    /**
+     * **********************************************************************
+     * Deletion
+     * ***********************************************************************
+     */
+
+    public void delete(long key) {
+        if (root == null) {
+            return;
+        }
+        if (remove(root, key)) {
+            root = first = last = null;
+            return;
+        }
+        // a root left with a single child is dropped
+        while (root instanceof Inner && root.n == 0) {
+            root = ((Inner) root).children[0];
+        }
+    }
+
+    // remove key from the subtree of x; true if x is left empty
+    private boolean remove(Node x, long key) {
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x;
+            int i = lowerBound(leaf.keys, leaf.n, key);
+            if (i == leaf.n || leaf.keys[i] != key) {
+                return false;
+            }
+            System.arraycopy(leaf.keys, i + 1, leaf.keys, i, leaf.n - i - 1);
+            System.arraycopy(leaf.vals, i + 1, leaf.vals, i, leaf.n - i - 1);
+            leaf.vals[--leaf.n] = null;
+            size--;
+            if (leaf.n > 0) {
+                return false;
+            }
+
+            if (leaf.prev != null) leaf.prev.next = leaf.next;
+            else first = leaf.next;
+            if (leaf.next != null) leaf.next.prev = leaf.prev;
+            else last = leaf.prev;
+            return true;
+        }
+
+        Inner inner = (Inner) x;
+        int c = childIndex(inner, key);
+        if (!remove(inner.children[c], key)) {
+            return false;
+        }
+        if (inner.n == 0) {
+            inner.children[0] = null;
+            return true;
+        }
+        // drop child c with the separator on its left, or on its right for child 0
+        int k = c > 0 ? c - 1 : 0;
+        System.arraycopy(inner.keys, k + 1, inner.keys, k, inner.n - k - 1);
+        System.arraycopy(inner.children, c + 1, inner.children, c, inner.n - c);
+        inner.children[inner.n--] = null;
+        return false;
+    }
+
+    /**
+     * **********************************************************************
+     * Range scan
+     * ***********************************************************************
+     */
+
+    @SuppressWarnings("unchecked")
+    public void visitRange(long leftBound, long rightBound, LongVisitor<Value> visitor) {
+        if (leftBound > rightBound || root == null) {
+            return;
+        }
+        Leaf leaf = leafOf(leftBound);
+        int i = lowerBound(leaf.keys, leaf.n, leftBound);
+        while (leaf != null) {
+            for (; i < leaf.n; i++) {
+                if (leaf.keys[i] > rightBound || !visitor.visit(leaf.keys[i], (Value) leaf.vals[i])) {
+                    return;
+                }
+            }
+            leaf = leaf.next;
+            i = 0;
+        }
+    }
+
+    /**
+     * @return a new cursor over this tree, reset it before use
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Cursor on a leaf and a slot in it, steps along the leaf chain
+     */
+    public class Cursor implements LongCursor<Value> {
+        private Leaf leaf;      // leaf of the next key, null when done
+        private int i;
+        private long hi;
+        private long key;
+
+        private Cursor() {
+        }
+
+        public void reset(long lo, long hi) {
+            this.hi = hi;
+            leaf = null;
+            if (lo > hi || root == null) {
+                return;
+            }
+            leaf = leafOf(lo);
+            i = lowerBound(leaf.keys, leaf.n, lo);
+            if (i == leaf.n) {
+                leaf = leaf.next;
+                i = 0;
+            }
+        }
+
+        public boolean hasNext() {
+            return leaf != null && leaf.keys[i] <= hi;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Value next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            key = leaf.keys[i];
+            Value val = (Value) leaf.vals[i];
+            if (++i == leaf.n) {
+                leaf = leaf.next;
+                i = 0;
+            }
+            return val;
+        }
+
+        public long key() {
+            return key;
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Bulk construction
+     * ***********************************************************************
+     */
+
+    /**
+     * Build a tree from keys in strictly increasing order in linear time, one
+     * level at a time from the leaves up. Leaves are full but the last, as full
+     * leaves scan best, though they split on the first insert into them.
+     *
+     * @param keys strictly increasing
+     * @param vals value of each key
+     * @param n    number of keys to take from the arrays
+     * @return new tree of default order
+     */
+    public static <Value> LongBPlusTree<Value> buildFromSorted(long[] keys, Value[] vals, int n) {
+        return buildFromSorted(keys, vals, n, DEFAULT_ORDER);
+    }
+
+    /**
+     * @param order max number of keys in a node, at least 3
+     * @see #buildFromSorted(long[], Object[], int)
+     */
+    public static <Value> LongBPlusTree<Value> buildFromSorted(long[] keys, Value[] vals, int n, int order) {
+        for (int i = 1; i < n; i++) {
+            if (keys[i - 1] >= keys[i]) {
+                throw new IllegalArgumentException("Keys not strictly increasing at " + i);
+            }
+        }
+
+        LongBPlusTree<Value> tree = new LongBPlusTree<Value>(order);
+        if (n == 0) {
+            return tree;
+        }
+
+        int count = (n + order - 1) / order;
+        Node[] level = new Node[count];
+        long[] mins = new long[count];      // smallest key under each node of level
+        Leaf prev = null;
+        for (int j = 0, from = 0; j < count; j++, from += order) {
+            Leaf leaf = new Leaf(order);
+            leaf.n = Math.min(order, n - from);
+            System.arraycopy(keys, from, leaf.keys, 0, leaf.n);
+            System.arraycopy(vals, from, leaf.vals, 0, leaf.n);
+            leaf.prev = prev;
+            if (prev != null) prev.next = leaf;
+            prev = leaf;
+            level[j] = leaf;
+            mins[j] = keys[from];
+        }
+        tree.first = (Leaf) level[0];
+        tree.last = prev;
+
+        // up to order + 1 children a node, spread evenly so none is left with one
+        while (count > 1) {
+            int parents = (count + order) / (order + 1);
+            Node[] up = new Node[parents];
+            for (int j = 0, from = 0; j < parents; j++) {
+                int to = from + (count - from) / (parents - j);
+                Inner inner = new Inner(order);
+                inner.n = to - from - 1;
+                System.arraycopy(level, from, inner.children, 0, to - from);
+                System.arraycopy(mins, from + 1, inner.keys, 0, inner.n);
+                up[j] = inner;
+                mins[j] = mins[from];
+                from = to;
+            }
+            level = up;
+            count = parents;
+        }
+        tree.root = level[0];
+        tree.size = n;
+        return tree;
+    }
+
+    /**
+     * **********************************************************************
+     * Check integrity of B+tree data structure
+     * ***********************************************************************
+     */
+    protected boolean check() {
+        if (root == null) {
+            return size == 0 && first == null && last == null;
+        }
+        leafDepth = 0;
+        leafCount = 0;
+        prevLeaf = null;
+        boolean ok = check(root, Long.MIN_VALUE, Long.MAX_VALUE, true, true, 0);
+        if (!ok) System.out.println("Not ordered or not balanced");
+        if (leafCount != size) {
+            System.out.println("Size not consistent");
+            ok = false;
+        }
+        if (prevLeaf != last || prevLeaf.next != null) {
+            System.out.println("Leaf links not consistent");
+            ok = false;
+        }
+        return ok;
+    }
+
+    private int leafDepth;
+    private int leafCount;
+    private Leaf prevLeaf;
+
+    // keys of x in [lo, hi) unless the side is open, leaves at one depth and linked in order
+    private boolean check(Node x, long lo, long hi, boolean openLo, boolean openHi, int depth) {
+        if (x.n > order) return false;
+        for (int i = 0; i < x.n; i++) {
+            if (i > 0 && x.keys[i - 1] >= x.keys[i]) return false;
+            if (!openLo && x.keys[i] < lo) return false;
+            if (!openHi && x.keys[i] >= hi) return false;
+        }
+        if (x instanceof Leaf) {
+            Leaf leaf = (Leaf) x;
+            if (leaf.n == 0 || leaf.prev != prevLeaf || (prevLeaf == null ? first != leaf : prevLeaf.next != leaf)) {
+                return false;
+            }
+            if (leafDepth == 0) leafDepth = depth + 1;
+            else if (leafDepth != depth + 1) return false;
+            prevLeaf = leaf;
+            leafCount += leaf.n;
+            return true;
+        }
+        Inner inner = (Inner) x;
+        for (int c = 0; c <= inner.n; c++) {
+            if (inner.children[c] == null) return false;
+            if (!check(inner.children[c], c > 0 ? inner.keys[c - 1] : lo, c < inner.n ? inner.keys[c] : hi,
+                    c == 0 && openLo, c == inner.n && openHi, depth + 1)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,294 @@
+/*************************************************************************
+ *  An ordered symbol table on primitive long keys that serves point
+ *  lookups at hash speed and range scans in key order from one structure.
+ *
+ *  Keys are grouped in blocks of 64 consecutive keys, block number key >> 6.
+ *  A block holds a 64 bit mask of the keys present and their values packed
+ *  in key order, so the value of a key is at the count of set bits below
+ *  its own. Blocks are found by number in a LongHashMap, and are threaded in
+ *  key order into a LongBPlusTree of blocks for range scans.
+ *
+ *  Only the first key of a block and the last one removed from it touch the
+ *  hash map and the tree, every other put and delete is a hash lookup and a
+ *  shift within the block. Dense keys, such as ids given out in sequence,
+ *  share blocks and cost a few bytes each; a key alone in its block costs
+ *  about as much as one entry of a hash map plus one of a tree.
+ *
+ *************************************************************************/
+
+import java.util.NoSuchElementException;
+
+public class LongBlockIndex<Value> implements LongOrderedIndex<Value> {
+
+    private static final int SHIFT = 6;     // 64 keys a block, one bit each in a long
+
+    private LongHashMap<Block> blocks;      // block number to block
+    private LongBPlusTree<Block> order;     // the same blocks, by block number
+    private int size;                       // number of keys
+
+    private static final class Block {
+        long bits;          // bit i set if key (number << SHIFT) + i is present
+        Object[] vals;      // values of present keys, in key order
+
+        Block(int capacity) {
+            vals = new Object[capacity];
+        }
+    }
+
+    public LongBlockIndex() {
+        blocks = new LongHashMap<Block>();
+        order = new LongBPlusTree<Block>();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // number of keys of block below offset
+    private static int rank(Block block, int offset) {
+        return Long.bitCount(block.bits & ((1L << offset) - 1));
+    }
+
+    @SuppressWarnings("unchecked")
+    public Value get(long key) {
+        Block block = blocks.get(key >> SHIFT);
+        if (block == null) {
+            return null;
+        }
+        int offset = (int) key & 63;
+        if ((block.bits & (1L << offset)) == 0) {
+            return null;
+        }
+        return (Value) block.vals[rank(block, offset)];
+    }
+
+    public boolean contains(long key) {
+        return get(key) != null;
+    }
+
+    public void put(long key, Value val) {
+        long number = key >> SHIFT;
+        Block block = blocks.get(number);
+        if (block == null) {
+            block = new Block(4);
+            blocks.put(number, block);
+            order.put(number, block);
+        }
+
+        int offset = (int) key & 63;
+        int i = rank(block, offset);
+        if ((block.bits & (1L << offset)) != 0) {
+            block.vals[i] = val;
+            return;
+        }
+        int n = Long.bitCount(block.bits);
+        if (n == block.vals.length) {
+            Object[] vals = new Object[Math.min(64, n << 1)];
+            System.arraycopy(block.vals, 0, vals, 0, n);
+            block.vals = vals;
+        }
+        System.arraycopy(block.vals, i, block.vals, i + 1, n - i);
+        block.vals[i] = val;
+        block.bits |= 1L << offset;
+        size++;
+    }
+
+    public void delete(long key) {
+        long number = key >> SHIFT;
+        Block block = blocks.get(number);
+        int offset = (int) key & 63;
+        if (block == null || (block.bits & (1L << offset)) == 0) {
+            return;
+        }
+
+        int i = rank(block, offset);
+        int n = Long.bitCount(block.bits);
+        System.arraycopy(block.vals, i + 1, block.vals, i, n - i - 1);
+        block.vals[n - 1] = null;
+        block.bits &= ~(1L << offset);
+        size--;
+        if (block.bits == 0) {
+            blocks.remove(number);
+            order.delete(number);
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Range scan
+     * ***********************************************************************
+     */
+
+    public void visitRange(long leftBound, long rightBound, LongVisitor<Value> visitor) {
+        Cursor cursor = cursor();
+        cursor.reset(leftBound, rightBound);
+        while (cursor.hasNext()) {
+            Value val = cursor.next();
+            if (!visitor.visit(cursor.key(), val)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return a new cursor over this index, reset it before use
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks blocks on range with a cursor of the block tree, and the keys of
+     * each block by clearing the lowest bit of a copy of its mask
+     */
+    public class Cursor implements LongCursor<Value> {
+        private final LongCursor<Block> blockCursor;
+        private Block block;        // block of the next key
+        private long number;        // its number
+        private long bits;          // keys of block left on range, 0 when done
+        private int rank;           // index in block.vals of the lowest bit of bits
+        private long lo, hi;
+        private long key;
+
+        private Cursor() {
+            blockCursor = order.cursor();
+        }
+
+        public void reset(long lo, long hi) {
+            this.lo = lo;
+            this.hi = hi;
+            bits = 0;
+            block = null;
+            if (lo > hi) {
+                return;
+            }
+            blockCursor.reset(lo >> SHIFT, hi >> SHIFT);
+            load();
+        }
+
+        // move to the next block with a key on range, if any
+        private void load() {
+            while (bits == 0 && blockCursor.hasNext()) {
+                block = blockCursor.next();
+                number = blockCursor.key();
+                long b = block.bits;
+                if (number == lo >> SHIFT) b &= -1L << (lo & 63);
+                if (number == hi >> SHIFT) b &= -1L >>> (63 - (hi & 63));
+                bits = b;
+                rank = Long.bitCount(block.bits & (Long.lowestOneBit(b) - 1));
+            }
+        }
+
+        public boolean hasNext() {
+            return bits != 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Value next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            key = (number << SHIFT) | Long.numberOfTrailingZeros(bits);
+            // the masks only cut the ends of block.bits, so ranks on range are consecutive
+            Value val = (Value) block.vals[rank++];
+            bits &= bits - 1;
+            if (bits == 0) {
+                load();
+            }
+            return val;
+        }
+
+        public long key() {
+            return key;
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Bulk construction
+     * ***********************************************************************
+     */
+
+    /**
+     * Build an index from keys in strictly increasing order in linear time,
+     * every block sized exactly and the block tree built from sorted numbers
+     *
+     * @param keys strictly increasing
+     * @param vals value of each key
+     * @param n    number of keys to take from the arrays
+     * @return new index
+     */
+    public static <Value> LongBlockIndex<Value> buildFromSorted(long[] keys, Value[] vals, int n) {
+        for (int i = 1; i < n; i++) {
+            if (keys[i - 1] >= keys[i]) {
+                throw new IllegalArgumentException("Keys not strictly increasing at " + i);
+            }
+        }
+
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || keys[i] >> SHIFT != keys[i - 1] >> SHIFT) count++;
+        }
+        long[] numbers = new long[count];
+        Block[] built = new Block[count];
+        LongBlockIndex<Value> index = new LongBlockIndex<Value>();
+        index.blocks = new LongHashMap<Block>(count);
+
+        for (int i = 0, j = 0; i < n; j++) {
+            long number = keys[i] >> SHIFT;
+            int end = i;
+            while (end < n && keys[end] >> SHIFT == number) end++;
+            Block block = new Block(end - i);
+            for (int k = i; k < end; k++) {
+                block.bits |= 1L << ((int) keys[k] & 63);
+                block.vals[k - i] = vals[k];
+            }
+            numbers[j] = number;
+            built[j] = block;
+            index.blocks.put(number, block);
+            i = end;
+        }
+        index.order = LongBPlusTree.buildFromSorted(numbers, built, count);
+        index.size = n;
+        return index;
+    }
+
+    /**
+     * **********************************************************************
+     * Check integrity of the index
+     * ***********************************************************************
+     */
+    protected boolean check() {
+        if (!order.check()) return false;
+        if (blocks.size() != order.size()) {
+            System.out.println("Hash map and tree hold different blocks");
+            return false;
+        }
+        int count = 0;
+        LongCursor<Block> cursor = order.cursor();
+        cursor.reset(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (cursor.hasNext()) {
+            Block block = cursor.next();
+            if (blocks.get(cursor.key()) != block || block.bits == 0) {
+                System.out.println("Block " + cursor.key() + " not consistent");
+                return false;
+            }
+            int n = Long.bitCount(block.bits);
+            for (int i = 0; i < block.vals.length; i++) {
+                if ((block.vals[i] != null) != (i < n)) {
+                    System.out.println("Values of block " + cursor.key() + " not packed");
+                    return false;
+                }
+            }
+            count += n;
+        }
+        if (count != size) {
+            System.out.println("Size not consistent");
+            return false;
+        }
+        return true;
+    }
+}
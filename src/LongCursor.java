@@ -0,0 +1,29 @@
+/**
+ * Reusable in-order cursor over a key range of a long keyed ordered index.
+ * A cursor can be reset to a new range any number of times, so one instance
+ * serves every scan. It must not be used across a structural change of the index.
+ */
+public interface LongCursor<Value> {
+    /**
+     * Position the cursor before the first key with lo <= key
+     * @param lo lower bound, inclusive
+     * @param hi upper bound, inclusive
+     */
+    void reset(long lo, long hi);
+
+    /**
+     * @return true if there is one more key on range
+     */
+    boolean hasNext();
+
+    /**
+     * Advance to the next key on range
+     * @return value of the next key
+     */
+    Value next();
+
+    /**
+     * @return key of the entry last returned by next
+     */
+    long key();
+}
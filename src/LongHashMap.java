@@ -0,0 +1,203 @@
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long key to value.
+ * <p/>
+ * Keys and values live in two parallel arrays, so there is no boxed key and no
+ * entry object per mapping. Collisions are resolved by linear probing, and
+ * remove shifts the following entries of the probe run backwards instead of
+ * leaving tombstones, so a lookup stops at the first empty slot.
+ * <p/>
+ * A slot is empty when its value is null, therefore null values are not allowed.
+ */
+public class LongHashMap<Value> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private Value[] vals;
+    private int mask;       // capacity - 1, capacity is always a power of two
+    private int size;       // number of mappings
+    private int threshold;  // resize when size exceeds it
+    private final float loadFactor;
+
+    public LongHashMap() {
+        this(0, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongHashMap(int expectedSize) {
+        this(expectedSize, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param expectedSize number of mappings to hold without resizing
+     * @param loadFactor   max ratio of size to capacity, in (0, 1)
+     */
+    public LongHashMap(int expectedSize, float loadFactor) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        if (!(loadFactor > 0 && loadFactor < 1)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+
+        this.loadFactor = loadFactor;
+        allocate(capacityFor(expectedSize, loadFactor));
+    }
+
+    // smallest power of two capacity that holds expectedSize mappings under load factor
+    private static int capacityFor(int expectedSize, float loadFactor) {
+        long needed = (long) Math.ceil(expectedSize / (double) loadFactor) + 1;
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < needed) {
+            if (capacity >= (1 << 30)) {
+                throw new IllegalArgumentException("Expected size too large: " + expectedSize);
+            }
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        vals = (Value[]) new Object[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * loadFactor);
+    }
+
+    // home slot of key, Fibonacci hashing spreads sequential ids over the table
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param key key
+     * @return value associated with key, null if no such key
+     */
+    public Value get(long key) {
+        int i = slot(key);
+        Value val;
+        // the load factor keeps an empty slot, the bound only matters to a reader
+        // racing a writer, see ConcurrentStore
+        for (int probes = 0; probes <= mask && (val = vals[i]) != null; probes++) {
+            if (keys[i] == key) {
+                return val;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associate value with key, replace the old value if key already present
+     * @param key key
+     * @param val non null value
+     * @return old value if key already present, null otherwise
+     */
+    public Value put(long key, Value val) {
+        if (val == null) {
+            throw new IllegalArgumentException("Null value is not allowed");
+        }
+
+        int i = slot(key);
+        Value old;
+        while ((old = vals[i]) != null) {
+            if (keys[i] == key) {
+                vals[i] = val;
+                return old;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        vals[i] = val;
+        if (++size > threshold) {
+            resize(vals.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * Remove the mapping of key, entries behind it in the same probe run
+     * are shifted back so no tombstone is left
+     * @param key key
+     * @return removed value, null if no such key
+     */
+    public Value remove(long key) {
+        int i = slot(key);
+        Value old;
+        while ((old = vals[i]) != null) {
+            if (keys[i] == key) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        if (old == null) {
+            return null;
+        }
+
+        // i is the hole, move back every later entry whose home slot is not in (i, j]
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (vals[j] == null) {
+                break;
+            }
+            int home = slot(keys[j]);
+            boolean stays = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (stays) {
+                continue;
+            }
+            keys[i] = keys[j];
+            vals[i] = vals[j];
+            i = j;
+        }
+        vals[i] = null;
+        size--;
+
+        return old;
+    }
+
+    public void clear() {
+        Arrays.fill(vals, null);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalStateException("LongHashMap capacity overflow");
+        }
+
+        long[] oldKeys = keys;
+        Value[] oldVals = vals;
+        allocate(capacity);
+
+        for (int j = 0; j < oldVals.length; j++) {
+            Value val = oldVals[j];
+            if (val == null) {
+                continue;
+            }
+            int i = slot(oldKeys[j]);
+            while (vals[i] != null) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            vals[i] = val;
+        }
+    }
+}
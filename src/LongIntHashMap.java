@@ -0,0 +1,197 @@
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive long key to non negative int value,
+ * same probing and backward shift deletion as LongHashMap.
+ * <p/>
+ * Values are stored plus one, so a slot is empty when it holds 0 and no
+ * separate occupancy array is needed. Lookup of a missing key returns -1.
+ */
+public class LongIntHashMap {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final float DEFAULT_LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] vals;
+    private int mask;       // capacity - 1, capacity is always a power of two
+    private int size;       // number of mappings
+    private int threshold;  // resize when size exceeds it
+    private final float loadFactor;
+
+    public LongIntHashMap() {
+        this(0, DEFAULT_LOAD_FACTOR);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        this(expectedSize, DEFAULT_LOAD_FACTOR);
+    }
+
+    /**
+     * @param expectedSize number of mappings to hold without resizing
+     * @param loadFactor   max ratio of size to capacity, in (0, 1)
+     */
+    public LongIntHashMap(int expectedSize, float loadFactor) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("Illegal expected size: " + expectedSize);
+        }
+        if (!(loadFactor > 0 && loadFactor < 1)) {
+            throw new IllegalArgumentException("Illegal load factor: " + loadFactor);
+        }
+
+        this.loadFactor = loadFactor;
+        allocate(capacityFor(expectedSize, loadFactor));
+    }
+
+    // smallest power of two capacity that holds expectedSize mappings under load factor
+    private static int capacityFor(int expectedSize, float loadFactor) {
+        long needed = (long) Math.ceil(expectedSize / (double) loadFactor) + 1;
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < needed) {
+            if (capacity >= (1 << 30)) {
+                throw new IllegalArgumentException("Expected size too large: " + expectedSize);
+            }
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        vals = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * loadFactor);
+    }
+
+    // home slot of key, Fibonacci hashing spreads sequential ids over the table
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param key key
+     * @return value associated with key, -1 if no such key
+     */
+    public int get(long key) {
+        int i = slot(key);
+        int val;
+        while ((val = vals[i]) != 0) {
+            if (keys[i] == key) {
+                return val - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) >= 0;
+    }
+
+    /**
+     * Associate value with key, replace the old value if key already present
+     * @param key key
+     * @param val non negative value
+     * @return old value if key already present, -1 otherwise
+     */
+    public int put(long key, int val) {
+        if (val < 0 || val == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Illegal value: " + val);
+        }
+
+        int i = slot(key);
+        int old;
+        while ((old = vals[i]) != 0) {
+            if (keys[i] == key) {
+                vals[i] = val + 1;
+                return old - 1;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        vals[i] = val + 1;
+        if (++size > threshold) {
+            resize(vals.length << 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Remove the mapping of key, entries behind it in the same probe run
+     * are shifted back so no tombstone is left
+     * @param key key
+     * @return removed value, -1 if no such key
+     */
+    public int remove(long key) {
+        int i = slot(key);
+        int old;
+        while ((old = vals[i]) != 0) {
+            if (keys[i] == key) {
+                break;
+            }
+            i = (i + 1) & mask;
+        }
+        if (old == 0) {
+            return -1;
+        }
+
+        // i is the hole, move back every later entry whose home slot is not in (i, j]
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (vals[j] == 0) {
+                break;
+            }
+            int home = slot(keys[j]);
+            boolean stays = (i <= j) ? (i < home && home <= j) : (i < home || home <= j);
+            if (stays) {
+                continue;
+            }
+            keys[i] = keys[j];
+            vals[i] = vals[j];
+            i = j;
+        }
+        vals[i] = 0;
+        size--;
+
+        return old - 1;
+    }
+
+    public void clear() {
+        Arrays.fill(vals, 0);
+        size = 0;
+    }
+
+    private void resize(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalStateException("LongIntHashMap capacity overflow");
+        }
+
+        long[] oldKeys = keys;
+        int[] oldVals = vals;
+        allocate(capacity);
+
+        for (int j = 0; j < oldVals.length; j++) {
+            int val = oldVals[j];
+            if (val == 0) {
+                continue;
+            }
+            int i = slot(oldKeys[j]);
+            while (vals[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            keys[i] = oldKeys[j];
+            vals[i] = val;
+        }
+    }
+}
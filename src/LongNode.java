@@ -0,0 +1,24 @@
+/**
+ * BST helper node data type for LongRedBlackBST, key stored as primitive long
+ * so that no boxing is needed on search and update.
+ */
+class LongNode<Value> {
+    protected long key;          // key
+    protected Value val;         // associated data
+    protected LongNode<Value> left, right;  // links to left and right subtrees
+    protected LongNode<Value> parent;       // null for root, kept for finger search
+    protected boolean color;     // color of parent link
+    protected int N;             // subtree count
+    protected int weight;        // weight of this node, e.g. items in the list it holds
+    protected int W;             // subtree weight, sum of weight over the subtree
+
+    public LongNode(long key, Value val, boolean color, int N) {
+        this.key = key;
+        this.val = val;
+        this.color = color;
+        this.N = N;
+    }
+
+    public LongNode() {
+    }
+}
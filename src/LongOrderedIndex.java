@@ -0,0 +1,47 @@
+/**
+ * Ordered symbol table keyed by primitive long, the operations Store needs
+ * from its id index: point lookup, insert, delete and in-order range scans.
+ */
+public interface LongOrderedIndex<Value> {
+    /**
+     * @param key key to look up
+     * @return value of key, null if absent
+     */
+    Value get(long key);
+
+    /**
+     * Insert the key, or replace its value if present
+     * @param key key to insert
+     * @param val value, not null
+     */
+    void put(long key, Value val);
+
+    /**
+     * Remove the key, nothing is changed if absent
+     * @param key key to remove
+     */
+    void delete(long key);
+
+    /**
+     * @return number of keys
+     */
+    int size();
+
+    /**
+     * @return true if there is no key
+     */
+    boolean isEmpty();
+
+    /**
+     * Visit every key with leftBound <= key <= rightBound in order
+     * @param leftBound  inclusive
+     * @param rightBound inclusive
+     * @param visitor    called for each key on range, may stop the traversal
+     */
+    void visitRange(long leftBound, long rightBound, LongVisitor<Value> visitor);
+
+    /**
+     * @return a new cursor over this index, reset it before use
+     */
+    LongCursor<Value> cursor();
+}
@@ -0,0 +1,1194 @@
+/*************************************************************************
+ *  A symbol table implemented using a left-leaning red-black BST,
+ *  specialized for primitive long keys.
+ *
+ *  Same algorithm and API as RedBlackBST, but keys are stored and compared
+ *  as long, so put, get, delete, floor and range queries never box a key
+ *  or go through compareTo. Methods that return a key and may have no
+ *  answer (min, max, floor, ceiling, select) throw NoSuchElementException
+ *  instead of returning null.
+ *
+ *************************************************************************/
+
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+public class LongRedBlackBST<Value> implements LongOrderedIndex<Value> {
+
+    private LongNode<Value> maxNode;
+    private LongNode<Value> minNode;
+
+    // finger: node of the last put or finger search, null after a delete as it
+    // may be the node removed
+    private LongNode<Value> recentlyAccessedNode; // really tricky
+
+    protected static final boolean RED = true;
+    protected static final boolean BLACK = false;
+
+    protected LongNode<Value> root;     // root of the BST
+
+    /**
+     * Smallest key in O(1): the node holding it is kept up to date by put and
+     * every delete, instead of descending the left spine like min()
+     *
+     * @return smallest key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public long getMinKey() {
+        if (isEmpty()) throw new NoSuchElementException("called getMinKey() with empty symbol table");
+        return minNode.key;
+    }
+
+    /**
+     * Largest key in O(1), see getMinKey
+     *
+     * @return largest key
+     * @throws NoSuchElementException if the tree is empty
+     */
+    public long getMaxKey() {
+        if (isEmpty()) throw new NoSuchElementException("called getMaxKey() with empty symbol table");
+        return maxNode.key;
+    }
+
+    // next node in key order through parent links, null after the last; O(1) from
+    // minNode, which is a leaf in a left leaning tree
+    private LongNode<Value> successor(LongNode<Value> x) {
+        if (x.right != null) return min(x.right);
+        while (x.parent != null && x == x.parent.right) x = x.parent;
+        return x.parent;
+    }
+
+    // previous node in key order, null before the first; O(1) from maxNode, whose
+    // only possible child is a red leaf on the left
+    private LongNode<Value> predecessor(LongNode<Value> x) {
+        if (x.left != null) return max(x.left);
+        while (x.parent != null && x == x.parent.left) x = x.parent;
+        return x.parent;
+    }
+
+    /**
+     * Add delta to the weight of the node with given key, and to the subtree
+     * weight of every node on the path from root to it
+     *
+     * @param key   key of the node
+     * @param delta weight change
+     * @return true if key found, false otherwise and nothing changed
+     */
+    public boolean addWeight(long key, int delta) {
+        LongNode<Value> x = root;
+        while (x != null && x.key != key) {
+            x = key < x.key ? x.left : x.right;
+        }
+        if (x == null) {
+            return false;
+        }
+
+        x = root;
+        while (true) {
+            x.W += delta;
+            if (key < x.key) x = x.left;
+            else if (key > x.key) x = x.right;
+            else break;
+        }
+        x.weight += delta;
+        return true;
+    }
+
+    /**
+     * Total weight of keys with leftBound <= key <= rightBound, with one walk for
+     * each bound instead of visiting every node on range
+     *
+     * @param leftBound  inclusive
+     * @param rightBound inclusive
+     * @return sum of weights on range
+     */
+    public int weight(long leftBound, long rightBound) {
+        if (leftBound > rightBound) {
+            return 0;
+        }
+        return weightAtMost(rightBound) - weightLess(leftBound);
+    }
+
+    // a left leaning red-black tree of at most 2^31 keys is less than this high
+    private static final int MAX_HEIGHT = 64;
+
+    // a descent this deep can only be a reader racing a writer through a rotation,
+    // stop it instead of looping, see ConcurrentStore
+    private static void checkDepth(int depth) {
+        if (depth == MAX_HEIGHT) {
+            throw new IllegalStateException("Descent deeper than any red-black tree");
+        }
+    }
+
+    // total weight of the whole tree
+    public int weight() {
+        return weight(root);
+    }
+
+    // sum of weights of keys strictly less than key
+    private int weightLess(long key) {
+        int sum = 0;
+        LongNode<Value> x = root;
+        for (int depth = 0; x != null; depth++) {
+            checkDepth(depth);
+            if (key <= x.key) {
+                x = x.left;
+            } else {
+                sum += weight(x.left) + x.weight;
+                x = x.right;
+            }
+        }
+        return sum;
+    }
+
+    // sum of weights of keys less than or equal to key
+    private int weightAtMost(long key) {
+        int sum = 0;
+        LongNode<Value> x = root;
+        for (int depth = 0; x != null; depth++) {
+            checkDepth(depth);
+            if (key < x.key) {
+                x = x.left;
+            } else {
+                sum += weight(x.left) + x.weight;
+                x = x.right;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Use in-order traversal
+     *
+     * @param root       root of subtree
+     * @param leftBound  inclusive
+     * @param rightBound inclusive
+     * @param list       store list, all elements stored in order
+     */
+    private void doGetKeysOnRange(LongNode<Value> root, long leftBound, long rightBound, LinkedList<LongNode<Value>> list) {
+        if (root == null) {
+            return;
+        }
+
+        // if root >= leftBound not holds, the range must not cover the left descendant of root
+        if (root.key >= leftBound) {
+            doGetKeysOnRange(root.left, leftBound, rightBound, list);
+        }
+
+        // leftBound <= root <= rightBound, then add root to list
+        if (leftBound <= root.key && root.key <= rightBound) {
+            list.add(root);
+        }
+
+        // if root <= rightBound not holds, the range must not cover the right descendant of root
+        if (root.key <= rightBound) {
+            doGetKeysOnRange(root.right, leftBound, rightBound, list);
+        }
+    }
+
+    /**
+     * Get all key with leftBound <= key <= rightBound
+     *
+     * @param leftBound  inclusive
+     * @param rightBound inclusive
+     * @return list of all ordered elements that satisfy the relation
+     */
+    public LinkedList<LongNode<Value>> getNodesOnRange(long leftBound, long rightBound) {
+        LinkedList<LongNode<Value>> list = new LinkedList<LongNode<Value>>();
+        if (leftBound > rightBound) {
+            return list;
+        }
+
+        doGetKeysOnRange(this.root, leftBound, rightBound, list);
+
+        return list;
+    }
+
+
+    /**
+     * Visit every key with leftBound <= key <= rightBound in order, nothing is
+     * allocated on the way
+     *
+     * @param leftBound  inclusive
+     * @param rightBound inclusive
+     * @param visitor    called for each key on range, may stop the traversal
+     */
+    public void visitRange(long leftBound, long rightBound, LongVisitor<Value> visitor) {
+        if (leftBound > rightBound) {
+            return;
+        }
+        visitRange(root, leftBound, rightBound, visitor);
+    }
+
+    // in-order visit of the subtree rooted at x; false if the visitor stopped
+    private boolean visitRange(LongNode<Value> x, long leftBound, long rightBound, LongVisitor<Value> visitor) {
+        if (x == null) {
+            return true;
+        }
+        if (leftBound < x.key && !visitRange(x.left, leftBound, rightBound, visitor)) {
+            return false;
+        }
+        if (leftBound <= x.key && x.key <= rightBound && !visitor.visit(x.key, x.val)) {
+            return false;
+        }
+        if (x.key < rightBound) {
+            return visitRange(x.right, leftBound, rightBound, visitor);
+        }
+        return true;
+    }
+
+    /**
+     * Visit every key with leftBound <= key <= rightBound in reverse order,
+     * nothing is allocated on the way
+     *
+     * @param leftBound  inclusive
+     * @param rightBound inclusive
+     * @param visitor    called for each key on range, may stop the traversal
+     */
+    public void visitRangeDescending(long leftBound, long rightBound, LongVisitor<Value> visitor) {
+        if (leftBound > rightBound) {
+            return;
+        }
+        visitRangeDescending(root, leftBound, rightBound, visitor);
+    }
+
+    // reverse in-order visit of the subtree rooted at x; false if the visitor stopped
+    private boolean visitRangeDescending(LongNode<Value> x, long leftBound, long rightBound, LongVisitor<Value> visitor) {
+        if (x == null) {
+            return true;
+        }
+        if (x.key < rightBound && !visitRangeDescending(x.right, leftBound, rightBound, visitor)) {
+            return false;
+        }
+        if (leftBound <= x.key && x.key <= rightBound && !visitor.visit(x.key, x.val)) {
+            return false;
+        }
+        if (leftBound < x.key) {
+            return visitRangeDescending(x.left, leftBound, rightBound, visitor);
+        }
+        return true;
+    }
+
+    /**
+     * @return a new cursor over this tree, reset it before use
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Non-recursive in-order cursor, keeps the path of pending ancestors in
+     * a stack array that is reused across resets
+     */
+    public class Cursor implements LongCursor<Value> {
+        private LongNode<Value>[] stack;
+        private int top;        // number of nodes on stack
+        private long hi;
+        private long key;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Cursor() {
+            stack = (LongNode<Value>[]) new LongNode[64];
+        }
+
+        public void reset(long lo, long hi) {
+            this.hi = hi;
+            while (top > 0) stack[--top] = null;
+            if (lo > hi) {
+                return;
+            }
+
+            // push every node on the search path of lo whose key is on range side
+            LongNode<Value> x = root;
+            while (x != null) {
+                if (x.key >= lo) {
+                    push(x);
+                    x = x.left;
+                } else {
+                    x = x.right;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return top > 0 && stack[top - 1].key <= hi;
+        }
+
+        public Value next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            LongNode<Value> n = stack[--top];
+            stack[top] = null;
+            // successor is the leftmost node of right subtree, or the next pending ancestor
+            for (LongNode<Value> x = n.right; x != null; x = x.left) {
+                push(x);
+            }
+
+            key = n.key;
+            return n.val;
+        }
+
+        public long key() {
+            return key;
+        }
+
+        private void push(LongNode<Value> x) {
+            if (top == stack.length) {
+                stack = Arrays.copyOf(stack, top << 1);
+            }
+            stack[top++] = x;
+        }
+    }
+
+
+    /**
+     * **********************************************************************
+     * Node helper methods
+     * ***********************************************************************
+     */
+    // is node x red; false if x is null ?
+    protected boolean isRed(LongNode<Value> x) {
+        if (x == null) return false;
+        return (x.color == RED);
+    }
+
+    // number of node in subtree rooted at x; 0 if x is null
+    protected int size(LongNode<Value> x) {
+        if (x == null) return 0;
+        return x.N;
+    }
+
+    // total weight of subtree rooted at x; 0 if x is null
+    protected int weight(LongNode<Value> x) {
+        if (x == null) return 0;
+        return x.W;
+    }
+
+
+    /**
+     * **********************************************************************
+     * Size methods
+     * ***********************************************************************
+     */
+
+    // return number of key-value pairs in this symbol table
+    public int size() {
+        return size(root);
+    }
+
+    // is this symbol table empty?
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    /**
+     * **********************************************************************
+     * Standard BST search
+     * ***********************************************************************
+     */
+
+    // value associated with the given key; null if no such key
+    public Value get(long key) {
+        return get(root, key);
+    }
+
+    // value associated with the given key in subtree rooted at x; null if no such key
+    protected Value get(LongNode<Value> x, long key) {
+        while (x != null) {
+            if (key < x.key) x = x.left;
+            else if (key > x.key) x = x.right;
+            else return x.val;
+        }
+        return null;
+    }
+
+    // is there a key-value pair with the given key?
+    public boolean contains(long key) {
+        return (get(key) != null);
+    }
+
+    /**
+     * **********************************************************************
+     * Red-black insertion
+     * ***********************************************************************
+     */
+
+    // insert the key-value pair; overwrite the old value with the new value
+    // if the key is already present
+    public void put(long key, Value val) {
+        root = put(root, key, val);
+        root.color = BLACK;
+        // assert check();
+    }
+
+    // insert the key-value pair in the subtree rooted at h
+    protected LongNode<Value> put(LongNode<Value> h, long key, Value val) {
+        if (h == null) {
+            LongNode<Value> newNode = new LongNode<Value>(key, val, RED, 1);
+            // a new key may be both, as in an empty tree
+            if (maxNode == null || newNode.key > maxNode.key) {
+                maxNode = newNode;
+            }
+            if (minNode == null || newNode.key < minNode.key) {
+                minNode = newNode;
+            }
+
+            recentlyAccessedNode = newNode;
+            return newNode;
+        }
+
+        if (key < h.key) {
+            h.left = put(h.left, key, val);
+            h.left.parent = h;
+        } else if (key > h.key) {
+            h.right = put(h.right, key, val);
+            h.right.parent = h;
+        } else h.val = val;
+
+        // fix-up any right-leaning links
+        if (isRed(h.right) && !isRed(h.left)) h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right)) flipColors(h);
+        h.N = size(h.left) + size(h.right) + 1;
+        h.W = weight(h.left) + weight(h.right) + h.weight;
+
+        return h;
+    }
+
+    /**
+     * **********************************************************************
+     * Finger search
+     * ***********************************************************************
+     */
+
+    /**
+     * Node to start a search for key from, instead of root: the lowest ancestor
+     * of the finger whose subtree may hold key. Climbing stops at the first link
+     * that bounds the subtree on the side of key, so a key at distance d from the
+     * finger is usually found in O(log d) steps. Keys past either end start from
+     * the extreme node, so ascending or descending streams never climb.
+     */
+    private LongNode<Value> fingerStart(long key) {
+        if (root == null) return null;
+        if (key > maxNode.key) return maxNode;
+        if (key < minNode.key) return minNode;
+
+        LongNode<Value> x = recentlyAccessedNode;
+        if (x == null) return root;
+        if (key > x.key) {
+            // a right child has the same upper bound as its parent
+            while (x.parent != null && (x == x.parent.right || key >= x.parent.key)) x = x.parent;
+        } else if (key < x.key) {
+            while (x.parent != null && (x == x.parent.left || key <= x.parent.key)) x = x.parent;
+        }
+        return x;
+    }
+
+    /**
+     * Same as get, but the search starts from the node of the last put or finger
+     * search, which then moves to the node found
+     *
+     * @param key key to search
+     * @return value of key, null if no such key
+     */
+    public Value fingerGet(long key) {
+        LongNode<Value> x = fingerStart(key);
+        while (x != null) {
+            if (key < x.key) {
+                if (x.left == null) break;
+                x = x.left;
+            } else if (key > x.key) {
+                if (x.right == null) break;
+                x = x.right;
+            } else {
+                recentlyAccessedNode = x;
+                return x.val;
+            }
+        }
+        // missed, the node reached is next to where key would be
+        if (x != null) recentlyAccessedNode = x;
+        return null;
+    }
+
+    /**
+     * Same as put, but the new leaf is found by a finger search and the tree is
+     * fixed bottom up through parent links. Only the search is O(log d): the
+     * count of every ancestor still changes, so an insert stays O(log n) as a
+     * whole, and saves the comparisons and cache misses of the way down. That
+     * pays off next to the finger only; on random keys the climb and the walk
+     * up make it slower than put, see putAscending. Updating an existing key
+     * changes no link.
+     *
+     * @param key key to insert
+     * @param val value, replaces the old value if key is present
+     */
+    public void fingerPut(long key, Value val) {
+        if (root == null) {
+            put(key, val);
+            return;
+        }
+
+        LongNode<Value> x = fingerStart(key);
+        while (true) {
+            if (key < x.key) {
+                if (x.left == null) break;
+                x = x.left;
+            } else if (key > x.key) {
+                if (x.right == null) break;
+                x = x.right;
+            } else {
+                x.val = val;
+                recentlyAccessedNode = x;
+                return;
+            }
+        }
+
+        LongNode<Value> newNode = new LongNode<Value>(key, val, RED, 1);
+        newNode.parent = x;
+        if (key < x.key) x.left = newNode;
+        else x.right = newNode;
+        if (key > maxNode.key) maxNode = newNode;
+        if (key < minNode.key) minNode = newNode;
+        recentlyAccessedNode = newNode;
+
+        // same fix-ups as the recursive put does on its way back up, until a node
+        // needs none while the node below kept its color: every fix-up above sees
+        // the same colors as before and is a no-op, only counts still grow
+        boolean turnedRed = true;   // the new leaf is a red link where there was none
+        for (LongNode<Value> h = x; h != null; ) {
+            LongNode<Value> parent = h.parent;
+            boolean isLeft = parent != null && parent.left == h;
+            boolean changed = false;
+            if (isRed(h.right) && !isRed(h.left)) {
+                h = rotateLeft(h);
+                changed = true;
+            }
+            if (isRed(h.left) && isRed(h.left.left)) {
+                h = rotateRight(h);
+                changed = true;
+            }
+            boolean flip = isRed(h.left) && isRed(h.right);
+            if (flip) flipColors(h);
+            h.N = size(h.left) + size(h.right) + 1;
+            h.W = weight(h.left) + weight(h.right) + h.weight;
+
+            if (parent == null) root = h;
+            else if (isLeft) parent.left = h;
+            else parent.right = h;
+
+            if (!changed && !flip && !turnedRed) {
+                // new leaf has weight 0, subtree weights above do not change
+                for (h = parent; h != null; h = h.parent) h.N++;
+                break;
+            }
+            turnedRed = flip;
+            h = parent;
+        }
+        root.color = BLACK;
+    }
+
+    /**
+     * Put for keys that mostly come in ascending order, such as ids given out in
+     * sequence: a key past the largest one goes in by fingerPut from the max
+     * node, with no descent, any other key by put
+     *
+     * @param key key to insert
+     * @param val value, replaces the old value if key is present
+     */
+    public void putAscending(long key, Value val) {
+        if (root != null && key > maxNode.key) fingerPut(key, val);
+        else put(key, val);
+    }
+
+    /**
+     * **********************************************************************
+     * Bulk construction
+     * ***********************************************************************
+     */
+
+    /**
+     * Build a tree from keys in strictly increasing order in linear time, with
+     * no comparison and no rotation. The shape is the one of a 2-3 tree with
+     * every leaf at the same depth: 2-nodes are black nodes, 3-nodes are a black
+     * node with a red left child, so the result is a valid left-leaning tree.
+     *
+     * @param keys    strictly increasing
+     * @param vals    value of each key
+     * @param weights weight of each key, null for all 0
+     * @param n       number of keys to take from the arrays
+     * @return new tree
+     */
+    public static <Value> LongRedBlackBST<Value> buildFromSorted(long[] keys, Value[] vals, int[] weights, int n) {
+        for (int i = 1; i < n; i++) {
+            if (keys[i - 1] >= keys[i]) {
+                throw new IllegalArgumentException("Keys not strictly increasing at " + i);
+            }
+        }
+
+        LongRedBlackBST<Value> tree = new LongRedBlackBST<Value>();
+        if (n == 0) {
+            return tree;
+        }
+
+        // tallest 2-3 tree of all 2-nodes that has no more than n keys
+        int height = 31 - Integer.numberOfLeadingZeros(n + 1);
+        tree.root = tree.build(keys, vals, weights, 0, n, height);
+        tree.minNode = tree.min(tree.root);
+        tree.maxNode = tree.max(tree.root);
+        return tree;
+    }
+
+    /**
+     * Subtree of n keys from lo whose every leaf is at black depth height, the
+     * caller guarantees 2^height - 1 <= n <= 3^height - 1
+     */
+    private LongNode<Value> build(long[] keys, Value[] vals, int[] weights, int lo, int n, int height) {
+        if (n == 0) {
+            return null;
+        }
+
+        // most keys below a child of black height height - 1
+        long childMax = 1;
+        for (int i = 1; i < height; i++) {
+            childMax *= 3;
+        }
+        childMax -= 1;
+
+        LongNode<Value> h;
+        if (n - 1 <= 2 * childMax) {
+            // 2-node, split the rest evenly between two children
+            int left = (n - 1) / 2;
+            h = node(keys, vals, weights, lo + left, BLACK);
+            h.left = build(keys, vals, weights, lo, left, height - 1);
+            h.right = build(keys, vals, weights, lo + left + 1, n - 1 - left, height - 1);
+            adopt(h);
+        } else {
+            // 3-node, red left child takes the first key, three children share the rest
+            int a = (n - 2) / 3;
+            int b = (n - 2 - a) / 2;
+            int c = n - 2 - a - b;
+            LongNode<Value> red = node(keys, vals, weights, lo + a, RED);
+            red.left = build(keys, vals, weights, lo, a, height - 1);
+            red.right = build(keys, vals, weights, lo + a + 1, b, height - 1);
+            adopt(red);
+            fix(red);
+            h = node(keys, vals, weights, lo + a + 1 + b, BLACK);
+            h.left = red;
+            h.right = build(keys, vals, weights, lo + n - c, c, height - 1);
+            adopt(h);
+        }
+        fix(h);
+        return h;
+    }
+
+    private static <Value> LongNode<Value> node(long[] keys, Value[] vals, int[] weights, int i, boolean color) {
+        LongNode<Value> x = new LongNode<Value>(keys[i], vals[i], color, 1);
+        if (weights != null) {
+            x.weight = weights[i];
+        }
+        return x;
+    }
+
+    // make h the parent of its children
+    private void adopt(LongNode<Value> h) {
+        if (h.left != null) h.left.parent = h;
+        if (h.right != null) h.right.parent = h;
+    }
+
+    // recompute count and subtree weight of h from its children
+    private void fix(LongNode<Value> h) {
+        h.N = size(h.left) + size(h.right) + 1;
+        h.W = weight(h.left) + weight(h.right) + h.weight;
+    }
+
+    /*************************************************************************
+     *  Red-black deletion
+     *************************************************************************/
+
+    /**
+     * delete the key-value pair with the minimum key
+     */
+    public void deleteMin() {
+        if (isEmpty()) throw new NoSuchElementException("BST underflow");
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        // the min node is the one removed, no key moves between nodes
+        minNode = successor(minNode);
+        root = deleteMin(root);
+        if (!isEmpty()) {
+            root.color = BLACK;
+            root.parent = null;
+        } else {
+            maxNode = null;
+        }
+        recentlyAccessedNode = null;
+        // assert check();
+    }
+
+    // delete the key-value pair with the minimum key rooted at h
+    protected LongNode<Value> deleteMin(LongNode<Value> h) {
+        if (h.left == null)
+            return null;
+
+        if (!isRed(h.left) && !isRed(h.left.left))
+            h = moveRedLeft(h);
+
+        h.left = deleteMin(h.left);
+        return balance(h);
+    }
+
+
+    /**
+     * delete the key-value pair with the maximum key
+     */
+    public void deleteMax() {
+        if (isEmpty()) throw new NoSuchElementException("BST underflow");
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        // the max node is the one removed, no key moves between nodes
+        maxNode = predecessor(maxNode);
+        root = deleteMax(root);
+        if (!isEmpty()) {
+            root.color = BLACK;
+            root.parent = null;
+        } else {
+            minNode = null;
+        }
+        recentlyAccessedNode = null;
+        // assert check();
+    }
+
+    /**
+     * delete the key-value pair with the maximum key rooted at h
+     *
+     * @param h root
+     * @return new root
+     */
+    protected LongNode<Value> deleteMax(LongNode<Value> h) {
+        if (isRed(h.left))
+            h = rotateRight(h);
+
+        if (h.right == null)
+            return null;
+
+        if (!isRed(h.right) && !isRed(h.right.left))
+            h = moveRedRight(h);
+
+        h.right = deleteMax(h.right);
+
+        return balance(h);
+    }
+
+    // delete the key-value pair with the given key
+    public void delete(long key) {
+        if (!contains(key)) {
+            System.err.println("symbol table does not contain " + key);
+            return;
+        }
+
+        // if both children of root are black, set root to red
+        if (!isRed(root.left) && !isRed(root.right))
+            root.color = RED;
+
+        // step an extreme that goes to its neighbour, which delete(h, key) follows
+        // if its key is moved into another node
+        if (key == minNode.key) minNode = successor(minNode);
+        if (key == maxNode.key) maxNode = predecessor(maxNode);
+        root = delete(root, key);
+        if (!isEmpty()) {
+            root.color = BLACK;
+            root.parent = null;
+        }
+        recentlyAccessedNode = null;
+        // assert check();
+    }
+
+    // delete the key-value pair with the given key rooted at h
+    protected LongNode<Value> delete(LongNode<Value> h, long key) {
+        // assert contains(h, key);
+
+        if (key < h.key) {
+            if (!isRed(h.left) && !isRed(h.left.left))
+                h = moveRedLeft(h);
+            h.left = delete(h.left, key);
+        } else {
+            if (isRed(h.left))
+                h = rotateRight(h);
+            if (key == h.key && (h.right == null)) {
+                // delete point
+                return null;
+            }
+            if (!isRed(h.right) && !isRed(h.right.left))
+                h = moveRedRight(h);
+            if (key == h.key) {
+                // delete point
+                LongNode<Value> x = min(h.right);
+                h.key = x.key;
+                h.val = x.val;
+                h.weight = x.weight;
+                // node x goes away, its key stays in h
+                if (x == minNode) minNode = h;
+                if (x == maxNode) maxNode = h;
+                h.right = deleteMin(h.right);
+            } else h.right = delete(h.right, key);
+        }
+        return balance(h);
+    }
+
+    /**
+     * **********************************************************************
+     * red-black tree helper functions
+     * ***********************************************************************
+     */
+
+    // make a left-leaning link lean to the right
+    protected LongNode<Value> rotateRight(LongNode<Value> h) {
+        // assert (h != null) && isRed(h.left);
+        LongNode<Value> x = h.left;
+        h.left = x.right;
+        if (h.left != null) h.left.parent = h;
+        x.right = h;
+        x.parent = h.parent;
+        h.parent = x;
+        x.color = x.right.color;
+        x.right.color = RED;
+        x.N = h.N;
+        x.W = h.W;
+        h.N = size(h.left) + size(h.right) + 1;
+        h.W = weight(h.left) + weight(h.right) + h.weight;
+        return x;
+    }
+
+    // make a right-leaning link lean to the left
+    protected LongNode<Value> rotateLeft(LongNode<Value> h) {
+        // assert (h != null) && isRed(h.right);
+        LongNode<Value> x = h.right;
+        h.right = x.left;
+        if (h.right != null) h.right.parent = h;
+        x.left = h;
+        x.parent = h.parent;
+        h.parent = x;
+        x.color = x.left.color;
+        x.left.color = RED;
+        x.N = h.N;
+        x.W = h.W;
+        h.N = size(h.left) + size(h.right) + 1;
+        h.W = weight(h.left) + weight(h.right) + h.weight;
+        return x;
+    }
+
+    // flip the colors of a node and its two children
+    protected void flipColors(LongNode<Value> h) {
+        // h must have opposite color of its two children
+        // assert (h != null) && (h.left != null) && (h.right != null);
+        // assert (!isRed(h) &&  isRed(h.left) &&  isRed(h.right))
+        //     || (isRed(h)  && !isRed(h.left) && !isRed(h.right));
+        h.color = !h.color;
+        h.left.color = !h.left.color;
+        h.right.color = !h.right.color;
+    }
+
+    // Assuming that h is red and both h.left and h.left.left
+    // are black, make h.left or one of its children red.
+    protected LongNode<Value> moveRedLeft(LongNode<Value> h) {
+        // assert (h != null);
+        // assert isRed(h) && !isRed(h.left) && !isRed(h.left.left);
+
+        flipColors(h);
+        if (isRed(h.right.left)) {
+            h.right = rotateRight(h.right);
+            h = rotateLeft(h);
+        }
+        return h;
+    }
+
+    // Assuming that h is red and both h.right and h.right.left
+    // are black, make h.right or one of its children red.
+    protected LongNode<Value> moveRedRight(LongNode<Value> h) {
+        // assert (h != null);
+        // assert isRed(h) && !isRed(h.right) && !isRed(h.right.left);
+        flipColors(h);
+        if (isRed(h.left.left)) {
+            h = rotateRight(h);
+        }
+        return h;
+    }
+
+    // restore red-black tree invariant
+    protected LongNode<Value> balance(LongNode<Value> h) {
+        // assert (h != null);
+
+        if (isRed(h.right)) h = rotateLeft(h);
+        if (isRed(h.left) && isRed(h.left.left)) h = rotateRight(h);
+        if (isRed(h.left) && isRed(h.right)) flipColors(h);
+
+        h.N = size(h.left) + size(h.right) + 1;
+        h.W = weight(h.left) + weight(h.right) + h.weight;
+        return h;
+    }
+
+
+    /**
+     * **********************************************************************
+     * Utility functions
+     * ***********************************************************************
+     */
+
+    // height of tree (1-node tree has height 0)
+    public int height() {
+        return height(root);
+    }
+
+    protected int height(LongNode<Value> x) {
+        if (x == null) return -1;
+        return 1 + Math.max(height(x.left), height(x.right));
+    }
+
+    /**
+     * **********************************************************************
+     * Ordered symbol table methods.
+     * ***********************************************************************
+     */
+
+    // the smallest key
+    public long min() {
+        if (isEmpty()) throw new NoSuchElementException("called min() with empty symbol table");
+        return min(root).key;
+    }
+
+    // the smallest key in subtree rooted at x
+    protected LongNode<Value> min(LongNode<Value> x) {
+        // assert x != null;
+        while (x.left != null) x = x.left;
+        return x;
+    }
+
+    // the largest key
+    public long max() {
+        if (isEmpty()) throw new NoSuchElementException("called max() with empty symbol table");
+        return max(root).key;
+    }
+
+    // the largest key in the subtree rooted at x
+    protected LongNode<Value> max(LongNode<Value> x) {
+        // assert x != null;
+        while (x.right != null) x = x.right;
+        return x;
+    }
+
+    // the largest key less than or equal to the given key
+    public long floor(long key) {
+        LongNode<Value> x = floor(root, key);
+        if (x == null) throw new NoSuchElementException("no key less than or equal to " + key);
+        else return x.key;
+    }
+
+    // the largest key in the subtree rooted at x less than or equal to the given key
+    protected LongNode<Value> floor(LongNode<Value> x, long key) {
+        if (x == null) return null;
+        if (key == x.key) return x;
+        if (key < x.key) return floor(x.left, key);
+        LongNode<Value> t = floor(x.right, key);
+        if (t != null) return t;
+        else return x;
+    }
+
+    // the smallest key greater than or equal to the given key
+    public long ceiling(long key) {
+        LongNode<Value> x = ceiling(root, key);
+        if (x == null) throw new NoSuchElementException("no key greater than or equal to " + key);
+        else return x.key;
+    }
+
+    // the smallest key in the subtree rooted at x greater than or equal to the given key
+    protected LongNode<Value> ceiling(LongNode<Value> x, long key) {
+        if (x == null) return null;
+        if (key == x.key) return x;
+        if (key > x.key) return ceiling(x.right, key);
+        LongNode<Value> t = ceiling(x.left, key);
+        if (t != null) return t;
+        else return x;
+    }
+
+
+    // the key of rank k
+    public long select(int k) {
+        if (k < 0 || k >= size()) throw new NoSuchElementException("no key of rank " + k);
+        LongNode<Value> x = select(root, k);
+        return x.key;
+    }
+
+    // the key of rank k in the subtree rooted at x
+    protected LongNode<Value> select(LongNode<Value> x, int k) {
+        // assert x != null;
+        // assert k >= 0 && k < size(x);
+        int t = size(x.left);
+        if (t > k) return select(x.left, k);
+        else if (t < k) return select(x.right, k - t - 1);
+        else return x;
+    }
+
+    // number of keys less than key
+    public int rank(long key) {
+        return rank(key, root);
+    }
+
+    // number of keys less than key in the subtree rooted at x
+    protected int rank(long key, LongNode<Value> x) {
+        if (x == null) return 0;
+        if (key < x.key) return rank(key, x.left);
+        else if (key > x.key) return 1 + size(x.left) + rank(key, x.right);
+        else return size(x.left);
+    }
+
+    /**
+     * ********************************************************************
+     * Range count and range search.
+     * *********************************************************************
+     */
+
+    // all of the keys, as an Iterable
+    public Iterable<Long> keys() {
+        if (isEmpty()) return new LinkedList<Long>();
+        return keys(min(), max());
+    }
+
+    // the keys between lo and hi, as an Iterable
+    public Iterable<Long> keys(long lo, long hi) {
+        LinkedList<Long> queue = new LinkedList<Long>();
+        keys(root, queue, lo, hi);
+        return queue;
+    }
+
+    // add the keys between lo and hi in the subtree rooted at x
+    // to the queue
+    protected void keys(LongNode<Value> x, Queue<Long> queue, long lo, long hi) {
+        if (x == null) return;
+        if (lo < x.key) keys(x.left, queue, lo, hi);
+        if (lo <= x.key && hi >= x.key) queue.add(x.key);
+        if (hi > x.key) keys(x.right, queue, lo, hi);
+    }
+
+    // number keys between lo and hi
+    public int size(long lo, long hi) {
+        if (lo > hi) return 0;
+        if (contains(hi)) return rank(hi) - rank(lo) + 1;
+        else return rank(hi) - rank(lo);
+    }
+
+
+    /**
+     * **********************************************************************
+     * Check integrity of red-black BST data structure
+     * ***********************************************************************
+     */
+    protected boolean check() {
+        if (!isBST()) System.out.println("Not in symmetric order");
+        if (!isSizeConsistent()) System.out.println("Subtree counts not consistent");
+        if (!isWeightConsistent()) System.out.println("Subtree weights not consistent");
+        if (!isParentConsistent()) System.out.println("Parent links not consistent");
+        if (!isRankConsistent()) System.out.println("Ranks not consistent");
+        if (!is23()) System.out.println("Not a 2-3 tree");
+        if (!isBalanced()) System.out.println("Not balanced");
+        return isBST() && isSizeConsistent() && isWeightConsistent() && isParentConsistent() && isRankConsistent()
+                && is23() && isBalanced();
+    }
+
+    // does this binary tree satisfy symmetric order?
+    // Note: this test also ensures that data structure is a binary tree since order is strict
+    protected boolean isBST() {
+        return isBST(root, Long.MIN_VALUE, Long.MAX_VALUE, false, false);
+    }
+
+    // is the tree rooted at x a BST with all keys strictly between min and max
+    // (if hasMin or hasMax is false, treat as empty constraint)
+    protected boolean isBST(LongNode<Value> x, long min, long max, boolean hasMin, boolean hasMax) {
+        if (x == null) return true;
+        if (hasMin && x.key <= min) return false;
+        if (hasMax && x.key >= max) return false;
+        return isBST(x.left, min, x.key, hasMin, true) && isBST(x.right, x.key, max, true, hasMax);
+    }
+
+    // are the size fields correct?
+    protected boolean isSizeConsistent() {
+        return isSizeConsistent(root);
+    }
+
+    protected boolean isSizeConsistent(LongNode<Value> x) {
+        if (x == null) return true;
+        if (x.N != size(x.left) + size(x.right) + 1) return false;
+        return isSizeConsistent(x.left) && isSizeConsistent(x.right);
+    }
+
+    // are the subtree weight fields correct?
+    protected boolean isWeightConsistent() {
+        return isWeightConsistent(root);
+    }
+
+    protected boolean isWeightConsistent(LongNode<Value> x) {
+        if (x == null) return true;
+        if (x.W != weight(x.left) + weight(x.right) + x.weight) return false;
+        return isWeightConsistent(x.left) && isWeightConsistent(x.right);
+    }
+
+    // is every node the parent of its children, and root of none?
+    protected boolean isParentConsistent() {
+        return root == null || (root.parent == null && isParentConsistent(root));
+    }
+
+    protected boolean isParentConsistent(LongNode<Value> x) {
+        if (x == null) return true;
+        if (x.left != null && x.left.parent != x) return false;
+        if (x.right != null && x.right.parent != x) return false;
+        return isParentConsistent(x.left) && isParentConsistent(x.right);
+    }
+
+    // check that ranks are consistent
+    protected boolean isRankConsistent() {
+        for (int i = 0; i < size(); i++)
+            if (i != rank(select(i))) return false;
+        for (long key : keys())
+            if (key != select(rank(key))) return false;
+        return true;
+    }
+
+    // Does the tree have no red right links, and at most one (left)
+    // red links in a row on any path?
+    protected boolean is23() {
+        return is23(root);
+    }
+
+    protected boolean is23(LongNode<Value> x) {
+        if (x == null) return true;
+        if (isRed(x.right)) return false;
+        if (x != root && isRed(x) && isRed(x.left))
+            return false;
+        return is23(x.left) && is23(x.right);
+    }
+
+    // do all paths from root to leaf have same number of black edges?
+    protected boolean isBalanced() {
+        int black = 0;     // number of black links on path from root to min
+        LongNode<Value> x = root;
+        while (x != null) {
+            if (!isRed(x)) black++;
+            x = x.left;
+        }
+        return isBalanced(root, black);
+    }
+
+    // does every path from the root to a leaf have the given number of black links?
+    protected boolean isBalanced(LongNode<Value> x, int black) {
+        if (x == null) return black == 0;
+        if (!isRed(x)) black--;
+        return isBalanced(x.left, black) && isBalanced(x.right, black);
+    }
+}
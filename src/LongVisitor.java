@@ -0,0 +1,12 @@
+/**
+ * Callback for in-order traversal of a long keyed ordered index,
+ * called once for every key on the visited range.
+ */
+public interface LongVisitor<Value> {
+    /**
+     * @param key key of the entry
+     * @param val value of the entry
+     * @return true to continue the traversal, false to stop it
+     */
+    boolean visit(long key, Value val);
+}
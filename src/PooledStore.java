@@ -0,0 +1,281 @@
+/**
+ * Store running on ItemPool handles instead of Item objects, same operations and
+ * results as Store.
+ * <p/>
+ * Ids map to handles in a primitive LongIntHashMap, and the id tree only keeps
+ * keys. Each (name part, price) list is a Group that only knows its first slot,
+ * the list size lives in the weight of its price tree node. Items, their names
+ * and every list link are ints and longs in pool columns, so a store with tens
+ * of millions of items holds a few large arrays instead of several objects per
+ * item, which cuts heap usage and GC marking time.
+ */
+public class PooledStore {
+
+    /**
+     * Head of the list of items with same partial name and same price
+     */
+    static final class Group {
+        int first = ItemPool.NIL;   // slot of first item
+    }
+
+    ItemPool pool;
+    // id to handle
+    LongIntHashMap idIndex;
+    // partial name to price tree of groups, weight of a tree node is the group size
+    LongHashMap<LongRedBlackBST<Group>> namePriceMap;
+    // ids only, for id range of priceHike
+    LongRedBlackBST<Boolean> idTree;
+    LongCursor<Boolean> hikeCursor;
+
+    public PooledStore() {
+        this(16);
+    }
+
+    /**
+     * @param expectedItems number of items to hold before any column grows
+     */
+    public PooledStore(int expectedItems) {
+        pool = new ItemPool(expectedItems);
+        idIndex = new LongIntHashMap(expectedItems);
+        namePriceMap = new LongHashMap<LongRedBlackBST<Group>>();
+        idTree = new LongRedBlackBST<Boolean>();
+        hikeCursor = idTree.cursor();
+    }
+
+    /**
+     * Insert the item into store
+     * @param id long, unique, non negative
+     * @param price equals the price times 100
+     * @param name long array, copied into the pool; null only to update price
+     * @return 1 if new, otherwise 0
+     */
+    public int insert(long id, long price, long[] name) {
+        int h = idIndex.get(id);
+
+        if (h < 0) {
+            h = pool.allocate(id, price, name);
+            idIndex.put(id, h);
+            attach(h);
+            idTree.putAscending(id, Boolean.TRUE);
+            return 1;
+        }
+
+        if (name != null) {
+            // if already existed and need to replace name
+            delete(id);
+            insert(id, price, name);
+            return 0;
+        }
+
+        // no need to replace name, just update price
+        detach(h, pool.price(h));
+        pool.setPrice(h, price);
+        attach(h);
+        return 0;
+    }
+
+    /**
+     * @param id unique, non negative
+     * @return the long represented price if found, 0 otherwise
+     */
+    public long find(long id) {
+        int h = idIndex.get(id);
+        if (h < 0) {
+            return 0;
+        }
+        return pool.price(h);
+    }
+
+    /**
+     * @param id unique, non negative
+     * @return the sum of name array if found, 0 otherwise
+     */
+    public long delete(long id) {
+        int h = idIndex.remove(id);
+        if (h < 0) {
+            return 0;
+        }
+
+        detach(h, pool.price(h));
+        idTree.delete(id);
+
+        long sum = 0;
+        for (int aisle = 0; aisle < pool.nameLength(h); aisle++) {
+            sum += pool.part(pool.slot(h, aisle));
+        }
+        pool.free(h);
+        return sum;
+    }
+
+    /**
+     * @param n given partial name
+     * @return the minimum price of items with that partial name, 0 not exists
+     */
+    public long findMinPrice(long n) {
+        LongRedBlackBST<Group> priceMap = namePriceMap.get(n);
+        if (priceMap == null || priceMap.isEmpty()) {
+            return 0;
+        }
+        return priceMap.getMinKey();
+    }
+
+    /**
+     * @param n given partial name
+     * @return the maximum price of items with that partial name, 0 not exists
+     */
+    public long findMaxPrice(long n) {
+        LongRedBlackBST<Group> priceMap = namePriceMap.get(n);
+        if (priceMap == null || priceMap.isEmpty()) {
+            return 0;
+        }
+        return priceMap.getMaxKey();
+    }
+
+    /**
+     * @param n with given partial name
+     * @param low lower bound, inclusive
+     * @param high upper bound, inclusive
+     * @return the number of items satisfy all conditions
+     */
+    public int findPriceRange(long n, long low, long high) {
+        LongRedBlackBST<Group> priceMap = namePriceMap.get(n);
+        if (priceMap == null) {
+            return 0;
+        }
+        return priceMap.weight(low, high);
+    }
+
+    /**
+     * Increase the price of every product, whose id is in the range [l,h], by r%
+     * @param l lower bound, inclusive
+     * @param h upper bound, inclusive
+     * @param r increase rate times 100
+     * @return the sum of the net increases of the prices
+     */
+    public long priceHike(long l, long h, int r) {
+        if (r <= 0 || r > 100) {
+            return 0;
+        }
+
+        LongCursor<Boolean> cursor = hikeCursor;
+        cursor.reset(l, h);
+        long increase = 0;
+
+        while (cursor.hasNext()) {
+            cursor.next();
+            int handle = idIndex.get(cursor.key());
+            long oldPrice = pool.price(handle);
+
+            long incre = (oldPrice * r) / 100;
+            detach(handle, oldPrice);
+            pool.setPrice(handle, oldPrice + incre);
+            attach(handle);
+
+            increase += incre;
+        }
+
+        return increase;
+    }
+
+    /**
+     * Link every name slot of item as first of its (part, price) list
+     * @param h handle, slots not linked
+     */
+    private void attach(int h) {
+        long price = pool.price(h);
+        for (int aisle = 0; aisle < pool.nameLength(h); aisle++) {
+            int slot = pool.slot(h, aisle);
+            long partName = pool.part(slot);
+
+            LongRedBlackBST<Group> priceMap = namePriceMap.get(partName);
+            if (priceMap == null) {
+                priceMap = new LongRedBlackBST<Group>();
+                namePriceMap.put(partName, priceMap);
+            }
+
+            Group group = priceMap.get(price);
+            if (group == null) {
+                group = new Group();
+                priceMap.put(price, group);
+            }
+
+            int first = group.first;
+            pool.setPrev(slot, ItemPool.NIL);
+            pool.setNext(slot, first);
+            if (first != ItemPool.NIL) {
+                pool.setPrev(first, slot);
+            }
+            group.first = slot;
+            priceMap.addWeight(price, 1);
+        }
+    }
+
+    /**
+     * Unlink every name slot of item, drop lists and price trees left empty
+     * @param h        handle, slots linked
+     * @param oldPrice price the item is listed under
+     */
+    private void detach(int h, long oldPrice) {
+        for (int aisle = 0; aisle < pool.nameLength(h); aisle++) {
+            int slot = pool.slot(h, aisle);
+            long partName = pool.part(slot);
+            LongRedBlackBST<Group> priceMap = namePriceMap.get(partName);
+
+            int prev = pool.prev(slot);
+            int next = pool.next(slot);
+            if (prev != ItemPool.NIL) {
+                pool.setNext(prev, next);
+            } else if (next != ItemPool.NIL) {
+                priceMap.get(oldPrice).first = next;
+            }
+            if (next != ItemPool.NIL) {
+                pool.setPrev(next, prev);
+            }
+            pool.setPrev(slot, ItemPool.NIL);
+            pool.setNext(slot, ItemPool.NIL);
+
+            if (prev == ItemPool.NIL && next == ItemPool.NIL) {
+                // it was the only item of list
+                priceMap.delete(oldPrice);
+                if (priceMap.isEmpty()) {
+                    namePriceMap.remove(partName);
+                }
+            } else {
+                priceMap.addWeight(oldPrice, -1);
+            }
+        }
+    }
+
+    /**
+     * Load the same items into Store and PooledStore and print heap used by each
+     * java PooledStore [items] [nameLength]
+     */
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int nameLength = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        StoreBenchmark.DataSet data = new StoreBenchmark.DataSet(n, nameLength,
+                StoreBenchmark.PriceDistribution.UNIFORM, 1);
+
+        long before = usedHeap();
+        Store store = data.load();
+        long storeBytes = usedHeap() - before;
+        System.out.println("Store:       " + storeBytes / n + " bytes per item, " + store.size() + " items");
+        store = null;
+
+        before = usedHeap();
+        PooledStore pooled = new PooledStore(n);
+        for (int i = 0; i < n; i++) {
+            pooled.insert(data.ids[i], data.prices[i], data.names[i]);
+        }
+        long pooledBytes = usedHeap() - before;
+        System.out.println("PooledStore: " + pooledBytes / n + " bytes per item, " + pooled.pool.size() + " items");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
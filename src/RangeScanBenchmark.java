@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The id indexes of Store against each other: heap used and time to put every
+ * id, point gets, range scans of a given width with a cursor, and priceHike of
+ * a Store on each index. The ids are those of a data set, put in its shuffled
+ * order as Store inserts them. A scan of width w visits about w / 2 ids, half
+ * of [0, 2 * size) is missing. The two index store has a LongHashMap for gets
+ * besides its tree, counted in heap and put time.
+ * <p/>
+ * java RangeScanBenchmark [size=1000000] [widths=100,10000] [scans=20000] [iterations=5] [warmups=3]
+ */
+public class RangeScanBenchmark {
+
+    // the id indexes a store with idIndex keeps, as a put of each id costs in it
+    static LongOrderedIndex<Long> create(Store.IdIndex idIndex) {
+        switch (idIndex) {
+            case UNIFIED:
+                return new LongBlockIndex<Long>();
+            case B_PLUS_TREE:
+                return new LongBPlusTree<Long>();
+            default:
+                return new LongRedBlackBST<Long>();
+        }
+    }
+
+    static long fill(LongOrderedIndex<Long> index, LongHashMap<Long> map, long[] keys) {
+        for (long key : keys) {
+            Long val = key;
+            if (map != null) {
+                map.put(key, val);
+            }
+            index.put(key, val);
+        }
+        return index.size();
+    }
+
+    static StoreBenchmark.Bench insert(final Store.IdIndex idIndex, final long[] keys) {
+        return new StoreBenchmark.Bench() {
+            long run(int i) {
+                LongHashMap<Long> map = idIndex == Store.IdIndex.UNIFIED ? null : new LongHashMap<Long>();
+                return fill(create(idIndex), map, keys);
+            }
+        };
+    }
+
+    static StoreBenchmark.Bench scan(final LongOrderedIndex<Long> index, final long[] starts, final int width) {
+        final LongCursor<Long> cursor = index.cursor();
+        return new StoreBenchmark.Bench() {
+            long run(int i) {
+                long sum = 0;
+                cursor.reset(starts[i], starts[i] + width - 1);
+                while (cursor.hasNext()) {
+                    sum += cursor.next();
+                }
+                return sum;
+            }
+        };
+    }
+
+    static StoreBenchmark.Bench lookup(final LongOrderedIndex<Long> index, final LongHashMap<Long> map,
+                                       final long[] keys) {
+        return new StoreBenchmark.Bench() {
+            long run(int i) {
+                Long val = map != null ? map.get(keys[i]) : index.get(keys[i]);
+                return val == null ? 0 : val;
+            }
+        };
+    }
+
+    static StoreBenchmark.Bench hike(final Store store, final long[] starts, final int width) {
+        return new StoreBenchmark.Bench() {
+            long run(int i) {
+                return store.priceHike(starts[i], starts[i] + width - 1, 1);
+            }
+        };
+    }
+
+    public static void main(String[] args) {
+        int size = Integer.parseInt(StoreBenchmark.param(args, "size", "1000000")[0]);
+        String[] widths = StoreBenchmark.param(args, "widths", "100", "10000");
+        int scans = Integer.parseInt(StoreBenchmark.param(args, "scans", "20000")[0]);
+        int iterations = Integer.parseInt(StoreBenchmark.param(args, "iterations", "5")[0]);
+        int warmups = Integer.parseInt(StoreBenchmark.param(args, "warmups", "3")[0]);
+
+        StoreBenchmark.DataSet data = new StoreBenchmark.DataSet(size, 4, StoreBenchmark.PriceDistribution.UNIFORM, 1);
+        Random random = new Random(7);
+        long[] starts = new long[scans];
+        for (int i = 0; i < scans; i++) {
+            starts[i] = random.nextInt(2 * size);
+        }
+
+        for (Store.IdIndex idIndex : Store.IdIndex.values()) {
+            System.out.println(String.format("%-12s %6.1f bytes per id", idIndex, bytesPerId(idIndex, data.ids)));
+        }
+
+        List<StoreBenchmark.Result> results = new ArrayList<StoreBenchmark.Result>();
+        for (Store.IdIndex idIndex : Store.IdIndex.values()) {
+            results.add(StoreBenchmark.measure("put all " + idIndex, insert(idIndex, data.ids), 1, warmups, iterations));
+
+            LongOrderedIndex<Long> index = create(idIndex);
+            LongHashMap<Long> map = idIndex == Store.IdIndex.UNIFIED ? null : new LongHashMap<Long>();
+            fill(index, map, data.ids);
+            results.add(StoreBenchmark.measure("get " + idIndex, lookup(index, map, data.ids), size, warmups, iterations));
+            for (String width : widths) {
+                int w = Integer.parseInt(width);
+                results.add(StoreBenchmark.measure("scan " + idIndex + " width=" + w,
+                        scan(index, starts, w), scans, warmups, iterations));
+            }
+            index = null;
+            map = null;
+
+            Store store = new Store(idIndex);
+            for (int i = 0; i < size; i++) {
+                store.insert(data.ids[i], data.prices[i], data.names[i].clone());
+            }
+            for (String width : widths) {
+                int w = Integer.parseInt(width);
+                results.add(StoreBenchmark.measure("priceHike " + idIndex + " width=" + w,
+                        hike(store, starts, w), Math.max(1, scans / w), warmups, iterations));
+            }
+        }
+        for (StoreBenchmark.Result result : results) {
+            System.out.println(result);
+        }
+        System.out.println("# blackhole " + StoreBenchmark.blackhole);
+    }
+
+    // heap held by the id indexes of a store with idIndex, values not counted
+    static double bytesPerId(Store.IdIndex idIndex, long[] keys) {
+        Long val = 0L;
+        long before = usedHeap();
+        LongOrderedIndex<Long> index = create(idIndex);
+        LongHashMap<Long> map = idIndex == Store.IdIndex.UNIFIED ? null : new LongHashMap<Long>();
+        for (long key : keys) {
+            if (map != null) {
+                map.put(key, val);
+            }
+            index.put(key, val);
+        }
+        long bytes = usedHeap() - before;
+        StoreBenchmark.blackhole += index.size() + (map == null ? 0 : map.size());
+        return bytes / (double) keys.length;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
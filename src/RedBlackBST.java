@@ -28,6 +28,7 @@
  *
  *************************************************************************/
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.Queue;
@@ -51,14 +52,41 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
      * *************************************************************
      */
 
+    /**
+     * Smallest key in O(1): the node holding it is kept up to date by put and
+     * every delete, instead of descending the left spine like min()
+     *
+     * @return smallest key
+     * @throws NoSuchElementException if the tree is empty
+     */
     public Key getMinKey() {
+        if (isEmpty()) throw new NoSuchElementException("called getMinKey() with empty symbol table");
         return minNode.key;
     }
 
+    /**
+     * Largest key in O(1), see getMinKey
+     *
+     * @return largest key
+     * @throws NoSuchElementException if the tree is empty
+     */
     public Key getMaxKey() {
+        if (isEmpty()) throw new NoSuchElementException("called getMaxKey() with empty symbol table");
         return maxNode.key;
     }
 
+    // find the extreme nodes again after a delete removed their keys; there are
+    // no parent links to step to a neighbour, so only those descend
+    private void refreshExtremes(boolean min, boolean max) {
+        if (isEmpty()) {
+            minNode = null;
+            maxNode = null;
+            return;
+        }
+        if (min) minNode = min(root);
+        if (max) maxNode = max(root);
+    }
+
 
     /**
      * Use in-order traversal
@@ -112,6 +140,121 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
     }
 
 
+    /**
+     * Callback for visitRange, return false to stop the traversal
+     */
+    public interface Visitor<Key, Value> {
+        boolean visit(Key key, Value val);
+    }
+
+    /**
+     * Visit every key with leftBound <= key <= rightBound in order, nothing is
+     * allocated on the way
+     *
+     * @param leftBound  inclusive
+     * @param rightBound inclusive
+     * @param visitor    called for each key on range, may stop the traversal
+     */
+    public void visitRange(Key leftBound, Key rightBound, Visitor<Key, Value> visitor) {
+        if (leftBound.compareTo(rightBound) > 0) {
+            return;
+        }
+        visitRange(root, leftBound, rightBound, visitor);
+    }
+
+    // in-order visit of the subtree rooted at x; false if the visitor stopped
+    private boolean visitRange(Node<Key, Value> x, Key leftBound, Key rightBound, Visitor<Key, Value> visitor) {
+        if (x == null) {
+            return true;
+        }
+        int cmplo = leftBound.compareTo(x.key);
+        int cmphi = rightBound.compareTo(x.key);
+        if (cmplo < 0 && !visitRange(x.left, leftBound, rightBound, visitor)) {
+            return false;
+        }
+        if (cmplo <= 0 && cmphi >= 0 && !visitor.visit(x.key, x.val)) {
+            return false;
+        }
+        if (cmphi > 0) {
+            return visitRange(x.right, leftBound, rightBound, visitor);
+        }
+        return true;
+    }
+
+    /**
+     * @return a new cursor over this tree, reset it before use
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Non-recursive in-order cursor over [lo, hi], keeps the path of pending
+     * ancestors in a stack array that is reused across resets.
+     * Must not be used across a structural change of the tree.
+     */
+    public class Cursor {
+        private Node<Key, Value>[] stack;
+        private int top;        // number of nodes on stack
+        private Key hi;
+        private Key key;
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Cursor() {
+            stack = (Node<Key, Value>[]) new Node[64];
+        }
+
+        // position the cursor before the first key with lo <= key
+        public void reset(Key lo, Key hi) {
+            this.hi = hi;
+            while (top > 0) stack[--top] = null;
+            if (lo.compareTo(hi) > 0) {
+                return;
+            }
+
+            Node<Key, Value> x = root;
+            while (x != null) {
+                if (x.key.compareTo(lo) >= 0) {
+                    push(x);
+                    x = x.left;
+                } else {
+                    x = x.right;
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return top > 0 && stack[top - 1].key.compareTo(hi) <= 0;
+        }
+
+        // advance to the next key on range and return its value
+        public Value next() {
+            if (!hasNext()) throw new NoSuchElementException();
+
+            Node<Key, Value> n = stack[--top];
+            stack[top] = null;
+            for (Node<Key, Value> x = n.right; x != null; x = x.left) {
+                push(x);
+            }
+
+            key = n.key;
+            return n.val;
+        }
+
+        // key of the entry last returned by next
+        public Key key() {
+            return key;
+        }
+
+        private void push(Node<Key, Value> x) {
+            if (top == stack.length) {
+                stack = Arrays.copyOf(stack, top << 1);
+            }
+            stack[top++] = x;
+        }
+    }
+
+
     /**
      * **********************************************************************
      * Node helper methods
@@ -196,9 +339,11 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
     protected Node<Key, Value> put(Node<Key, Value> h, Key key, Value val) {
         if (h == null) {
             Node<Key, Value> newNode = new Node<Key, Value>(key, val, RED, 1);
+            // a new key may be both, as in an empty tree
             if (maxNode == null || newNode.key.compareTo(maxNode.key) > 0) {
                 maxNode = newNode;
-            } else if (minNode == null || newNode.key.compareTo(minNode.key) < 0) {
+            }
+            if (minNode == null || newNode.key.compareTo(minNode.key) < 0) {
                 minNode = newNode;
             }
 
@@ -220,16 +365,93 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         return h;
     }
 
+    /**
+     * **********************************************************************
+     * Bulk construction
+     * ***********************************************************************
+     */
+
+    /**
+     * Build a tree from keys in strictly increasing order in linear time, with
+     * no rotation. The shape is the one of a 2-3 tree with every leaf at the same
+     * depth: 2-nodes are black nodes, 3-nodes are a black node with a red left
+     * child, so the result is a valid left-leaning tree.
+     *
+     * @param keys   strictly increasing
+     * @param values value of each key
+     * @return new tree
+     */
+    public static <Key extends Comparable<Key>, Value> RedBlackBST<Key, Value> buildFromSorted(Key[] keys, Value[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("Keys and values differ in length");
+        }
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i - 1].compareTo(keys[i]) >= 0) {
+                throw new IllegalArgumentException("Keys not strictly increasing at " + i);
+            }
+        }
+
+        RedBlackBST<Key, Value> tree = new RedBlackBST<Key, Value>();
+        int n = keys.length;
+        if (n == 0) {
+            return tree;
+        }
+
+        // tallest 2-3 tree of all 2-nodes that has no more than n keys
+        int height = 31 - Integer.numberOfLeadingZeros(n + 1);
+        tree.root = tree.build(keys, values, 0, n, height);
+        tree.minNode = tree.min(tree.root);
+        tree.maxNode = tree.max(tree.root);
+        return tree;
+    }
+
+    /**
+     * Subtree of n keys from lo whose every leaf is at black depth height, the
+     * caller guarantees 2^height - 1 <= n <= 3^height - 1
+     */
+    private Node<Key, Value> build(Key[] keys, Value[] values, int lo, int n, int height) {
+        if (n == 0) {
+            return null;
+        }
+
+        // most keys below a child of black height height - 1
+        long childMax = 1;
+        for (int i = 1; i < height; i++) {
+            childMax *= 3;
+        }
+        childMax -= 1;
+
+        Node<Key, Value> h;
+        if (n - 1 <= 2 * childMax) {
+            // 2-node, split the rest evenly between two children
+            int left = (n - 1) / 2;
+            h = new Node<Key, Value>(keys[lo + left], values[lo + left], BLACK, 1);
+            h.left = build(keys, values, lo, left, height - 1);
+            h.right = build(keys, values, lo + left + 1, n - 1 - left, height - 1);
+        } else {
+            // 3-node, red left child takes the first key, three children share the rest
+            int a = (n - 2) / 3;
+            int b = (n - 2 - a) / 2;
+            int c = n - 2 - a - b;
+            Node<Key, Value> red = new Node<Key, Value>(keys[lo + a], values[lo + a], RED, 1);
+            red.left = build(keys, values, lo, a, height - 1);
+            red.right = build(keys, values, lo + a + 1, b, height - 1);
+            red.N = size(red.left) + size(red.right) + 1;
+            h = new Node<Key, Value>(keys[lo + a + 1 + b], values[lo + a + 1 + b], BLACK, 1);
+            h.left = red;
+            h.right = build(keys, values, lo + n - c, c, height - 1);
+        }
+        h.N = size(h.left) + size(h.right) + 1;
+        return h;
+    }
+
     /*************************************************************************
      *  Red-black deletion
      *************************************************************************/
 
     /**
      * delete the key-value pair with the minimum key
-     *
-     * @deprecated To implement fine max/min in this tree on O(1), deprecated this method
      */
-    @Deprecated
     public void deleteMin() {
         if (isEmpty()) throw new NoSuchElementException("BST underflow");
 
@@ -239,6 +461,7 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
 
         root = deleteMin(root);
         if (!isEmpty()) root.color = BLACK;
+        refreshExtremes(true, false);
         // assert check();
     }
 
@@ -257,10 +480,7 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
 
     /**
      * delete the key-value pair with the maximum key
-     *
-     * @deprecated To implement fine max/min in this tree on O(1), deprecated this method
      */
-    @Deprecated
     public void deleteMax() {
         if (isEmpty()) throw new NoSuchElementException("BST underflow");
 
@@ -270,6 +490,7 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
 
         root = deleteMax(root);
         if (!isEmpty()) root.color = BLACK;
+        refreshExtremes(false, true);
         // assert check();
     }
 
@@ -278,9 +499,7 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
      *
      * @param h root
      * @return new root
-     * @deprecated To implement fine max/min in this tree on O(1), deprecated this method
      */
-    @Deprecated
     protected Node<Key, Value> deleteMax(Node<Key, Value> h) {
         if (isRed(h.left))
             h = rotateRight(h);
@@ -307,8 +526,11 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
         if (!isRed(root.left) && !isRed(root.right))
             root.color = RED;
 
+        boolean min = key.compareTo(minNode.key) == 0;
+        boolean max = key.compareTo(maxNode.key) == 0;
         root = delete(root, key);
         if (!isEmpty()) root.color = BLACK;
+        refreshExtremes(min, max);
         // assert check();
     }
 
@@ -334,9 +556,9 @@ public class RedBlackBST<Key extends Comparable<Key>, Value> {
                 Node<Key, Value> x = min(h.right);
                 h.key = x.key;
                 h.val = x.val;
-                // h.val = get(h.right, min(h.right).key);
-                // h.key = min(h.right).key;
-                h.right = deleteMin(h.right);// this 4 operation is actually change the max and min key
+                // node x goes away, its key stays in h
+                if (x == maxNode) maxNode = h;
+                h.right = deleteMin(h.right);
             } else h.right = delete(h.right, key);
         }
         return balance(h);
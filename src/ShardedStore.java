@@ -0,0 +1,195 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Items split by id hash over N independent Store shards, each shard owned by
+ * one dedicated thread, so a shard is never touched by two threads and needs no
+ * lock.
+ * <p/>
+ * insert, find and delete run on the shard of the id. findMinPrice, findMaxPrice,
+ * findPriceRange and priceHike run on every shard at the same time and the shard
+ * results are merged. Calls block until done and may come from any number of
+ * client threads.
+ */
+public class ShardedStore {
+
+    private final Store[] shards;
+    private final ExecutorService[] owners;
+
+    /**
+     * @param n number of shards
+     */
+    public ShardedStore(int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Illegal number of shards: " + n);
+        }
+
+        shards = new Store[n];
+        owners = new ExecutorService[n];
+        for (int i = 0; i < n; i++) {
+            shards[i] = new Store();
+            final String name = "store-shard-" + i;
+            owners[i] = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, name);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    public int shardCount() {
+        return shards.length;
+    }
+
+    // shard index of id, Fibonacci hashing so sequential ids spread evenly
+    int shardOf(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % shards.length);
+    }
+
+    public int insert(final long id, final long price, final long[] name) {
+        int i = shardOf(id);
+        final Store shard = shards[i];
+        return await(owners[i].submit(new Callable<Integer>() {
+            public Integer call() {
+                return shard.insert(id, price, name);
+            }
+        }));
+    }
+
+    public long find(final long id) {
+        int i = shardOf(id);
+        final Store shard = shards[i];
+        return await(owners[i].submit(new Callable<Long>() {
+            public Long call() {
+                return shard.find(id);
+            }
+        }));
+    }
+
+    public long delete(final long id) {
+        int i = shardOf(id);
+        final Store shard = shards[i];
+        return await(owners[i].submit(new Callable<Long>() {
+            public Long call() {
+                return shard.delete(id);
+            }
+        }));
+    }
+
+    /**
+     * @param n given partial name
+     * @return minimum price over all shards, 0 not exists
+     */
+    public long findMinPrice(final long n) {
+        Future<Long>[] results = fanOut(new ShardCall() {
+            long call(Store shard) {
+                return shard.findMinPrice(n);
+            }
+        });
+
+        long min = 0;
+        for (Future<Long> result : results) {
+            long price = await(result);
+            // 0 means the shard has no such partial name
+            if (price != 0 && (min == 0 || price < min)) {
+                min = price;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * @param n given partial name
+     * @return maximum price over all shards, 0 not exists
+     */
+    public long findMaxPrice(final long n) {
+        Future<Long>[] results = fanOut(new ShardCall() {
+            long call(Store shard) {
+                return shard.findMaxPrice(n);
+            }
+        });
+
+        long max = 0;
+        for (Future<Long> result : results) {
+            max = Math.max(max, await(result));
+        }
+        return max;
+    }
+
+    public int findPriceRange(final long n, final long low, final long high) {
+        Future<Long>[] results = fanOut(new ShardCall() {
+            long call(Store shard) {
+                return shard.findPriceRange(n, low, high);
+            }
+        });
+
+        int sum = 0;
+        for (Future<Long> result : results) {
+            sum += await(result);
+        }
+        return sum;
+    }
+
+    public long priceHike(final long l, final long h, final int r) {
+        Future<Long>[] results = fanOut(new ShardCall() {
+            long call(Store shard) {
+                return shard.priceHike(l, h, r);
+            }
+        });
+
+        long sum = 0;
+        for (Future<Long> result : results) {
+            sum += await(result);
+        }
+        return sum;
+    }
+
+    /**
+     * Stop shard threads, the store must not be used afterwards
+     */
+    public void shutdown() {
+        for (ExecutorService owner : owners) {
+            owner.shutdown();
+        }
+    }
+
+    /**
+     * Work to run on one shard by its owner thread
+     */
+    private static abstract class ShardCall {
+        abstract long call(Store shard);
+    }
+
+    // submit call to every shard owner
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Future<Long>[] fanOut(final ShardCall work) {
+        Future<Long>[] results = (Future<Long>[]) new Future[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            final Store shard = shards[i];
+            results[i] = owners[i].submit(new Callable<Long>() {
+                public Long call() {
+                    return work.call(shard);
+                }
+            });
+        }
+        return results;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for shard", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Shard operation failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of ShardedStore as the number of shards grows. For each shard count
+ * the same items are loaded, then as many client threads as shards run a mix of
+ * id operations (find, price update, delete and insert back) and fan out name
+ * queries for a fixed time.
+ * <p/>
+ * java ShardedStoreBenchmark [size=1000000] [maxShards=cores] [seconds=5] [nameQueries=20]
+ */
+public class ShardedStoreBenchmark {
+
+    static volatile boolean running;
+    static final AtomicLong sinks = new AtomicLong();
+
+    /**
+     * @return operations per second of all clients
+     */
+    static double run(final ShardedStore store, final StoreBenchmark.DataSet data, int clients,
+                      long millis, final int nameQueryPercent) throws InterruptedException {
+        final AtomicLong ops = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[clients];
+
+        for (int t = 0; t < clients; t++) {
+            // each client owns a stripe of items, so insert back never races delete
+            final int stripe = t;
+            final int stripes = clients;
+            threads[t] = new Thread() {
+                public void run() {
+                    Random random = new Random(stripe);
+                    long count = 0;
+                    long sink = 0;
+                    ConcurrentStoreBenchmark.await(start);
+                    while (running) {
+                        int i = random.nextInt(data.size / stripes) * stripes + stripe;
+                        if (random.nextInt(100) < nameQueryPercent) {
+                            long n = 1 + i % data.vocabulary;
+                            switch (i & 3) {
+                                case 0:
+                                    sink += store.findMinPrice(n);
+                                    break;
+                                case 1:
+                                    sink += store.findMaxPrice(n);
+                                    break;
+                                default:
+                                    long low = random.nextInt(500000);
+                                    sink += store.findPriceRange(n, low, low + 250000);
+                            }
+                        } else {
+                            switch (i & 3) {
+                                case 0:
+                                case 1:
+                                    sink += store.find(data.ids[i]);
+                                    break;
+                                case 2:
+                                    sink += store.insert(data.ids[i], data.prices[i], null);
+                                    break;
+                                default:
+                                    sink += store.delete(data.ids[i]);
+                                    sink += store.insert(data.ids[i], data.prices[i], data.names[i].clone());
+                            }
+                        }
+                        count++;
+                    }
+                    ops.addAndGet(count);
+                    sinks.addAndGet(sink);
+                }
+            };
+        }
+
+        running = true;
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return ops.get() / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = Integer.parseInt(StoreBenchmark.param(args, "size", "1000000")[0]);
+        int maxShards = Integer.parseInt(StoreBenchmark.param(args, "maxShards",
+                Integer.toString(Runtime.getRuntime().availableProcessors()))[0]);
+        long millis = (long) (Double.parseDouble(StoreBenchmark.param(args, "seconds", "5")[0]) * 1000);
+        int nameQueries = Integer.parseInt(StoreBenchmark.param(args, "nameQueries", "20")[0]);
+
+        StoreBenchmark.DataSet data = new StoreBenchmark.DataSet(size, 4, StoreBenchmark.PriceDistribution.UNIFORM, 1);
+        for (int shards = 1; shards <= maxShards; shards <<= 1) {
+            ShardedStore store = new ShardedStore(shards);
+            for (int i = 0; i < data.size; i++) {
+                store.insert(data.ids[i], data.prices[i], data.names[i].clone());
+            }
+
+            // warmup
+            run(store, data, shards, millis / 2, nameQueries);
+            double opsPerSecond = run(store, data, shards, millis, nameQueries);
+            System.out.println(String.format("shards=%-3d clients=%-3d %14.0f ops/s %12.0f ops/s/shard",
+                    shards, shards, opsPerSecond, opsPerSecond / shards));
+            store.shutdown();
+        }
+    }
+}
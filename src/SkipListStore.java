@@ -0,0 +1,262 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock free Store engine, same operations and results as Store, for many readers
+ * and many writers at the same time.
+ * <p/>
+ * The id index is a ConcurrentSkipListMap from id to an immutable Entry, an
+ * update replaces the whole entry with compare and set. Each partial name has a
+ * ConcurrentSkipListMap from price to a Group, which only counts the items with
+ * that partial name and price. Groups and names left empty are taken out, so
+ * churning prices and names do not leak maps. No operation takes a lock.
+ * <p/>
+ * A writer first swaps the entry, then moves its counts between groups, so a
+ * reader may briefly see an item counted under its old price, its new one or
+ * neither. findPriceRange visits every price on range, there is no subtree
+ * aggregate in a skip list.
+ */
+public class SkipListStore {
+
+    /**
+     * Immutable state of one item
+     */
+    static final class Entry {
+        final long price;
+        final long[] name;
+
+        Entry(long price, long[] name) {
+            this.price = price;
+            this.name = name;
+        }
+    }
+
+    /**
+     * Counter of items with same partial name and same price. The count may go
+     * below zero while writers on the same item race. Whoever brings it to zero
+     * retires it, and a retired group takes no more changes, they go to a new one.
+     */
+    static final class Group extends AtomicInteger {
+        private static final long serialVersionUID = 1L;
+        static final int RETIRED = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Groups of one partial name by price, and the number of groups in it. A
+     * writer counts a group in before putting it in the map and out after taking
+     * it out, so a count of zero means no group is there or on its way. Whoever
+     * brings it to zero retires it the same way as a group, and takes it out of
+     * namePriceMap.
+     */
+    static final class Prices extends AtomicInteger {
+        private static final long serialVersionUID = 1L;
+        final ConcurrentSkipListMap<Long, Group> groups = new ConcurrentSkipListMap<Long, Group>();
+    }
+
+    ConcurrentSkipListMap<Long, Entry> itemTree;
+    ConcurrentHashMap<Long, Prices> namePriceMap;
+
+    public SkipListStore() {
+        itemTree = new ConcurrentSkipListMap<Long, Entry>();
+        namePriceMap = new ConcurrentHashMap<Long, Prices>();
+    }
+
+    /**
+     * @param id long, unique, non negative
+     * @param price equals the price times 100
+     * @param name long array; null only to update price
+     * @return 1 if new, otherwise 0
+     * @throws IllegalArgumentException if id is new and name is null, nothing is changed
+     */
+    public int insert(long id, long price, long[] name) {
+        while (true) {
+            Entry old = itemTree.get(id);
+            if (old == null) {
+                if (name == null) {
+                    throw new IllegalArgumentException("No name for new item " + id);
+                }
+                Entry entry = new Entry(price, name);
+                if (itemTree.putIfAbsent(id, entry) == null) {
+                    count(entry, 1);
+                    return 1;
+                }
+            } else {
+                Entry entry = new Entry(price, name != null ? name : old.name);
+                if (itemTree.replace(id, old, entry)) {
+                    count(old, -1);
+                    count(entry, 1);
+                    return 0;
+                }
+            }
+            // lost a race with another writer of this id, look again
+        }
+    }
+
+    public long find(long id) {
+        Entry entry = itemTree.get(id);
+        if (entry == null) {
+            return 0;
+        }
+        return entry.price;
+    }
+
+    public long delete(long id) {
+        while (true) {
+            Entry old = itemTree.get(id);
+            if (old == null) {
+                return 0;
+            }
+            if (itemTree.remove(id, old)) {
+                count(old, -1);
+
+                long sum = 0;
+                for (long one : old.name) {
+                    sum += one;
+                }
+                return sum;
+            }
+        }
+    }
+
+    public long findMinPrice(long n) {
+        Prices priceMap = namePriceMap.get(n);
+        if (priceMap == null) {
+            return 0;
+        }
+        for (Map.Entry<Long, Group> group : priceMap.groups.entrySet()) {
+            if (group.getValue().get() > 0) {
+                return group.getKey();
+            }
+        }
+        return 0;
+    }
+
+    public long findMaxPrice(long n) {
+        Prices priceMap = namePriceMap.get(n);
+        if (priceMap == null) {
+            return 0;
+        }
+        for (Map.Entry<Long, Group> group : priceMap.groups.descendingMap().entrySet()) {
+            if (group.getValue().get() > 0) {
+                return group.getKey();
+            }
+        }
+        return 0;
+    }
+
+    public int findPriceRange(long n, long low, long high) {
+        Prices priceMap = namePriceMap.get(n);
+        if (priceMap == null || low > high) {
+            return 0;
+        }
+        int sum = 0;
+        for (Group group : priceMap.groups.subMap(low, true, high, true).values()) {
+            sum += Math.max(group.get(), 0);
+        }
+        return sum;
+    }
+
+    public long priceHike(long l, long h, int r) {
+        if (r <= 0 || r > 100 || l > h) {
+            return 0;
+        }
+
+        long increase = 0;
+        for (Map.Entry<Long, Entry> item : itemTree.subMap(l, true, h, true).entrySet()) {
+            long id = item.getKey();
+            Entry old = item.getValue();
+            while (old != null) {
+                long incre = (old.price * r) / 100;
+                Entry entry = new Entry(old.price + incre, old.name);
+                if (itemTree.replace(id, old, entry)) {
+                    count(old, -1);
+                    count(entry, 1);
+                    increase += incre;
+                    break;
+                }
+                // changed meanwhile, hike the current state, skip if deleted
+                old = itemTree.get(id);
+            }
+        }
+        return increase;
+    }
+
+    // add delta to the group of every partial name of entry at its price
+    private void count(Entry entry, int delta) {
+        for (long partName : entry.name) {
+            count(partName, entry.price, delta);
+        }
+    }
+
+    private void count(long partName, long price, int delta) {
+        while (true) {
+            Prices prices = namePriceMap.get(partName);
+            if (prices == null) {
+                Prices created = new Prices();
+                prices = namePriceMap.putIfAbsent(partName, created);
+                if (prices == null) {
+                    prices = created;
+                }
+            }
+
+            Group group = prices.groups.get(price);
+            if (group == null) {
+                // count the group in first, so prices is not retired under it
+                if (!enter(partName, prices)) {
+                    continue;
+                }
+                Group created = new Group();
+                group = prices.groups.putIfAbsent(price, created);
+                if (group == null) {
+                    group = created;
+                } else {
+                    leave(partName, prices);
+                }
+            }
+
+            int c = group.get();
+            if (c == Group.RETIRED) {
+                // help to unlink the retired group, then retry on a new one
+                unlink(partName, prices, price, group);
+                continue;
+            }
+            if (!group.compareAndSet(c, c + delta)) {
+                continue;
+            }
+            if (c + delta == 0 && group.compareAndSet(0, Group.RETIRED)) {
+                unlink(partName, prices, price, group);
+            }
+            return;
+        }
+    }
+
+    // take a retired group out of prices, only the thread that does counts it out
+    private void unlink(long partName, Prices prices, long price, Group group) {
+        if (prices.groups.remove(price, group)) {
+            leave(partName, prices);
+        }
+    }
+
+    // count one more group in prices; false if it is retired, after helping to unlink it
+    private boolean enter(long partName, Prices prices) {
+        while (true) {
+            int c = prices.get();
+            if (c == Group.RETIRED) {
+                namePriceMap.remove(partName, prices);
+                return false;
+            }
+            if (prices.compareAndSet(c, c + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // count one group out of prices, retire and unlink prices if none is left
+    private void leave(long partName, Prices prices) {
+        if (prices.decrementAndGet() == 0 && prices.compareAndSet(0, Group.RETIRED)) {
+            namePriceMap.remove(partName, prices);
+        }
+    }
+}
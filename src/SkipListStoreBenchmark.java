@@ -0,0 +1,149 @@
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of SkipListStore against ConcurrentStore (red-black engine under a
+ * StampedLock) at 1, 2, 4 ... 32 threads. Every thread runs the same mix for a
+ * fixed time: writes percent of insert, delete and priceHike, the rest find,
+ * findMinPrice, findMaxPrice and findPriceRange.
+ * <p/>
+ * java SkipListStoreBenchmark [size=1000000] [maxThreads=32] [seconds=5] [writes=10] [engine=redblack,skiplist]
+ */
+public class SkipListStoreBenchmark {
+
+    static volatile boolean running;
+
+    /**
+     * Common face of the engines under test
+     */
+    static abstract class Engine {
+        abstract int insert(long id, long price, long[] name);
+        abstract long find(long id);
+        abstract long delete(long id);
+        abstract long findMinPrice(long n);
+        abstract long findMaxPrice(long n);
+        abstract int findPriceRange(long n, long low, long high);
+        abstract long priceHike(long l, long h, int r);
+    }
+
+    static Engine create(String engine, StoreBenchmark.DataSet data) {
+        if (engine.equals("skiplist")) {
+            final SkipListStore store = new SkipListStore();
+            for (int i = 0; i < data.size; i++) {
+                store.insert(data.ids[i], data.prices[i], data.names[i].clone());
+            }
+            return new Engine() {
+                int insert(long id, long price, long[] name) { return store.insert(id, price, name); }
+                long find(long id) { return store.find(id); }
+                long delete(long id) { return store.delete(id); }
+                long findMinPrice(long n) { return store.findMinPrice(n); }
+                long findMaxPrice(long n) { return store.findMaxPrice(n); }
+                int findPriceRange(long n, long low, long high) { return store.findPriceRange(n, low, high); }
+                long priceHike(long l, long h, int r) { return store.priceHike(l, h, r); }
+            };
+        }
+        if (engine.equals("redblack")) {
+            final ConcurrentStore store = new ConcurrentStore(data.load(), true);
+            return new Engine() {
+                int insert(long id, long price, long[] name) { return store.insert(id, price, name); }
+                long find(long id) { return store.find(id); }
+                long delete(long id) { return store.delete(id); }
+                long findMinPrice(long n) { return store.findMinPrice(n); }
+                long findMaxPrice(long n) { return store.findMaxPrice(n); }
+                int findPriceRange(long n, long low, long high) { return store.findPriceRange(n, low, high); }
+                long priceHike(long l, long h, int r) { return store.priceHike(l, h, r); }
+            };
+        }
+        throw new IllegalArgumentException("Unknown engine: " + engine);
+    }
+
+    /**
+     * @return operations per second of all threads
+     */
+    static double run(final Engine store, final StoreBenchmark.DataSet data, int threads,
+                      long millis, final int writePercent) throws InterruptedException {
+        final AtomicLong ops = new AtomicLong();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            final long seed = t;
+            workers[t] = new Thread() {
+                public void run() {
+                    Random random = new Random(seed);
+                    long count = 0;
+                    long sink = 0;
+                    ConcurrentStoreBenchmark.await(start);
+                    while (running) {
+                        int i = random.nextInt(data.size);
+                        if (random.nextInt(100) < writePercent) {
+                            if ((i & 1) == 0) {
+                                // put back right away, updates only touch odd indexes so never meet a missing id
+                                sink += store.delete(data.ids[i]);
+                                sink += store.insert(data.ids[i], data.prices[i], data.names[i].clone());
+                            } else if (random.nextBoolean()) {
+                                // price update
+                                sink += store.insert(data.ids[i], data.prices[i], null);
+                            } else {
+                                // just this id, a wider range would take in even ones being put back
+                                sink += store.priceHike(data.ids[i], data.ids[i], 1);
+                            }
+                        } else {
+                            switch (i & 3) {
+                                case 0:
+                                    sink += store.find(data.ids[i]);
+                                    break;
+                                case 1:
+                                    sink += store.findMinPrice(1 + i % data.vocabulary);
+                                    break;
+                                case 2:
+                                    sink += store.findMaxPrice(1 + i % data.vocabulary);
+                                    break;
+                                default:
+                                    long low = random.nextInt(500000);
+                                    sink += store.findPriceRange(1 + i % data.vocabulary, low, low + 250000);
+                            }
+                        }
+                        count++;
+                    }
+                    ops.addAndGet(count);
+                    ConcurrentStoreBenchmark.sinks.addAndGet(sink);
+                }
+            };
+        }
+
+        running = true;
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        running = false;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return ops.get() / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = Integer.parseInt(StoreBenchmark.param(args, "size", "1000000")[0]);
+        int maxThreads = Integer.parseInt(StoreBenchmark.param(args, "maxThreads", "32")[0]);
+        long millis = (long) (Double.parseDouble(StoreBenchmark.param(args, "seconds", "5")[0]) * 1000);
+        int writes = Integer.parseInt(StoreBenchmark.param(args, "writes", "10")[0]);
+        String[] engines = StoreBenchmark.param(args, "engine", "redblack", "skiplist");
+
+        StoreBenchmark.DataSet data = new StoreBenchmark.DataSet(size, 4, StoreBenchmark.PriceDistribution.UNIFORM, 1);
+        for (String name : engines) {
+            Engine store = create(name, data);
+            // warmup
+            run(store, data, 1, millis / 2, writes);
+            for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+                double result = run(store, data, threads, millis, writes);
+                System.out.println(String.format("%-9s threads=%-3d writes=%d%% %14.0f ops/s %12.0f ops/s/thread",
+                        name, threads, writes, result, result / threads));
+            }
+        }
+    }
+}
@@ -1,29 +1,84 @@
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Created by Jun Yu on 10/23/14.
  */
 public class Store {
-    // for search by id efficiently
-    HashMap<Long, Item> itemMap;
+    // for search by id efficiently, open addressing on primitive id;
+    // null with IdIndex.UNIFIED, where itemTree serves find and delete too
+    LongHashMap<Item> itemMap;
     // two level structure, first is to store all items with same partial name,
     // key is partial name, value is a RBTree whose key is price, and value is
     // internal doubly linked list of items.
-    HashMap<Long, RedBlackBST<Long, ItemListHead>> namePriceMap;
+    LongHashMap<LongRedBlackBST<ItemListHead>> namePriceMap;
     // for search id range
-    RedBlackBST<Long, Item> itemTree;
+    LongOrderedIndex<Item> itemTree;
+    // reused by every priceHike to walk id range without allocation
+    LongCursor<Item> hikeCursor;
+    // reused by every priceHike to collect the items it moves and their old prices
+    private Item[] hikeItems = new Item[16];
+    private long[] hikeOldPrices = new long[16];
+    // for id x price box queries, built by the first one and kept by every update after
+    private IdPriceIndex boxIndex;
+
+    // a hike that moves at least one item in this many of the store, and at
+    // least BULK_HIKE_MIN, regroups the name price map in bulk
+    static final int BULK_HIKE_SHARE = 16;
+    static final int BULK_HIKE_MIN = 256;
+    // a parallel hike that moves fewer items runs in the calling thread alone
+    static final int PARALLEL_HIKE_MIN = 4096;
+    // items or name slots a task of a parallel hike handles without forking
+    static final int HIKE_TASK_ITEMS = 4096;
+    // a price tree is rebuilt by a bulk hike that moves at least one item per
+    // this many lists of it, patched move by move below
+    static final int REBUILD_RATIO = 4;
+    // structure of itemTree
+    private final IdIndex idIndex;
+
+    /**
+     * Ordered index structures for the id range of priceHike
+     */
+    public enum IdIndex {
+        /** LongRedBlackBST, one node per item */
+        RED_BLACK,
+        /** LongBPlusTree, wide nodes and linked leaves for cache friendly range scans */
+        B_PLUS_TREE,
+        /** LongBlockIndex alone, both for id lookups and id ranges, no itemMap */
+        UNIFIED
+    }
 
     public Store() {
-        itemMap = new HashMap<Long, Item>();
-        namePriceMap = new HashMap<Long, RedBlackBST<Long, ItemListHead>>();
-        itemTree = new RedBlackBST<Long, Item>();
+        this(IdIndex.RED_BLACK);
+    }
+
+    /**
+     * @param idIndex structure of the id range index
+     */
+    public Store(IdIndex idIndex) {
+        this.idIndex = idIndex;
+        namePriceMap = new LongHashMap<LongRedBlackBST<ItemListHead>>();
+        if (idIndex == IdIndex.UNIFIED) {
+            itemTree = new LongBlockIndex<Item>();
+        } else {
+            itemMap = new LongHashMap<Item>();
+            itemTree = idIndex == IdIndex.B_PLUS_TREE ? new LongBPlusTree<Item>() : new LongRedBlackBST<Item>();
+        }
+        hikeCursor = itemTree.cursor();
         priceFormat.setRoundingMode(RoundingMode.DOWN);
         pricePrecision.setRoundingMode(RoundingMode.HALF_UP);
     }
@@ -36,14 +91,24 @@ public class Store {
      * @return 1 if new, otherwise 0
      */
     public int insert(long id, long price, long[] name) {
-        Item item = itemMap.get(id);
+        Item item = item(id);
 
         if (item == null) {
             item = new Item(id, price, name);
-            itemMap.put(id, item);
+            if (itemMap != null) {
+                itemMap.put(id, item);
+            }
             // put int name price map
             updateNamePriceMap(item);
-            itemTree.put(id, item);
+            if (itemTree instanceof LongRedBlackBST) {
+                // ids given out in sequence skip the descent
+                ((LongRedBlackBST<Item>) itemTree).putAscending(id, item);
+            } else {
+                itemTree.put(id, item);
+            }
+            if (boxIndex != null) {
+                boxIndex.add(item);
+            }
             return 1;
         }
 
@@ -59,6 +124,9 @@ public class Store {
         item.setPrice(price);
         // update name price map
         clearAndUpdateNamePriceMap(item, oldPrice, false);
+        if (boxIndex != null) {
+            boxIndex.setPrice(id, oldPrice, item);
+        }
 
         return 0;
     }
@@ -81,7 +149,7 @@ public class Store {
      * @return the long represented price if found, 0 otherwise
      */
     public long find(long id) {
-        Item item = itemMap.get(id);
+        Item item = item(id);
         if (item == null) {
             return 0;
         }
@@ -94,7 +162,7 @@ public class Store {
      * @return the sum of name array if found, 0 otherwise
      */
     public long delete(long id) {
-        Item item = itemMap.remove(id);
+        Item item = itemMap != null ? itemMap.remove(id) : itemTree.get(id);
         if (item == null) {
             return 0;
         }
@@ -105,6 +173,9 @@ public class Store {
         clearAndUpdateNamePriceMap(item, oldPrice, true);
 
         itemTree.delete(id);
+        if (boxIndex != null) {
+            boxIndex.remove(id, oldPrice);
+        }
 
         long sum = 0;
         for (long one : item.name) {
@@ -113,23 +184,34 @@ public class Store {
         return sum;
     }
 
+    /**
+     * @return number of items
+     */
+    public int size() {
+        return itemTree.size();
+    }
+
+    // item of id from whichever index serves point lookups, null if absent
+    Item item(long id) {
+        return itemMap != null ? itemMap.get(id) : itemTree.get(id);
+    }
+
     /**
      * Find the item with maximum price that has the same partial name with given
      * @param n given partial name
      * @return the price of item if found, 0 not exists
      */
     public long findMinPrice(long n) {
-        RedBlackBST<Long, ItemListHead> priceMap = namePriceMap.get(n);
+        LongRedBlackBST<ItemListHead> priceMap = namePriceMap.get(n);
         if (priceMap == null) {
             return 0;
         }
 
-        // log n, O(1) try later
-        Long result = priceMap.min();
-        if (result == null) {
+        if (priceMap.isEmpty()) {
             return 0;
         }
-        return result;
+        // node of smallest price is cached by the tree, O(1)
+        return priceMap.getMinKey();
     }
 
     /**
@@ -138,16 +220,15 @@ public class Store {
      * @return the price of item if found, 0 not exists
      */
     public long findMaxPrice(long n) {
-        RedBlackBST<Long, ItemListHead> priceMap = namePriceMap.get(n);
+        LongRedBlackBST<ItemListHead> priceMap = namePriceMap.get(n);
         if (priceMap == null) {
             return 0;
         }
 
-        Long result = priceMap.max();
-        if (result == null) {
+        if (priceMap.isEmpty()) {
             return 0;
         }
-        return result;
+        return priceMap.getMaxKey();
     }
 
     /**
@@ -158,18 +239,242 @@ public class Store {
      * @return the number of items satisfy all conditions
      */
     public int findPriceRange(long n, long low, long high) {
-        RedBlackBST<Long, ItemListHead> priceMap = namePriceMap.get(n);
+        LongRedBlackBST<ItemListHead> priceMap = namePriceMap.get(n);
         if (priceMap == null) {
             return 0;
         }
 
-        LinkedList<Node<Long, ItemListHead>> nodeList = priceMap.getNodesOnRange(low, high);
-        int sum = 0;
-        for (Node<Long, ItemListHead> node : nodeList) {
-            sum += node.val.size;
+        // node weight is the size of its item list, two walks down the tree
+        return priceMap.weight(low, high);
+    }
+
+    /**
+     * Find the k cheapest items with given partial name, walking the price tree
+     * in order and each list of a price as far as needed, so the work is the k
+     * items and the path to them, whatever the number of items of the name.
+     * Items of a same price come in no particular order.
+     * @param n given partial name
+     * @param k number of items wanted
+     * @param ids receives the id of each item found, cheapest first, at least k long
+     * @param prices receives the price of each item found, at least k long
+     * @return the number of items found, less than k if the name has fewer items
+     */
+    public int topKCheapest(long n, int k, long[] ids, long[] prices) {
+        TopK top = topK(n, k, ids, prices);
+        if (top != null) {
+            namePriceMap.get(n).visitRange(Long.MIN_VALUE, Long.MAX_VALUE, top);
         }
+        return top == null ? 0 : top.found;
+    }
 
-        return sum;
+    /**
+     * Find the k most expensive items with given partial name, most expensive first
+     * @return the number of items found, less than k if the name has fewer items
+     * @see #topKCheapest(long, int, long[], long[])
+     */
+    public int topKMostExpensive(long n, int k, long[] ids, long[] prices) {
+        TopK top = topK(n, k, ids, prices);
+        if (top != null) {
+            namePriceMap.get(n).visitRangeDescending(Long.MIN_VALUE, Long.MAX_VALUE, top);
+        }
+        return top == null ? 0 : top.found;
+    }
+
+    // visitor collecting k items of name n, null if there is nothing to collect
+    private TopK topK(long n, int k, long[] ids, long[] prices) {
+        if (k < 0 || ids.length < k || prices.length < k) {
+            throw new IllegalArgumentException("Bad k " + k + " for " + ids.length + " ids and " + prices.length + " prices");
+        }
+        LongRedBlackBST<ItemListHead> priceMap = namePriceMap.get(n);
+        if (priceMap == null || k == 0) {
+            return null;
+        }
+        return new TopK(n, k, ids, prices);
+    }
+
+    /**
+     * Copies the items of every list it visits until it has k; an item is met
+     * once per aisle of the part and taken at its first one
+     */
+    private static final class TopK implements LongVisitor<ItemListHead> {
+        private final long part;
+        private final int k;
+        private final long[] ids;
+        private final long[] prices;
+        int found;
+
+        TopK(long part, int k, long[] ids, long[] prices) {
+            this.part = part;
+            this.k = k;
+            this.ids = ids;
+            this.prices = prices;
+        }
+
+        public boolean visit(long price, ItemListHead head) {
+            Item item = head.next;
+            int aisle = head.nextAisle;
+            while (item != null && found < k) {
+                if (item.whichAisle(part) == aisle) {
+                    ids[found] = item.id;
+                    prices[found++] = price;
+                }
+                Item next = item.next[aisle];
+                aisle = item.nextAisle[aisle];
+                item = next;
+            }
+            return found < k;
+        }
+    }
+
+    /**
+     * Find all items whose name has every given partial name and whose price on
+     * range [low, high]. Only the price tree of the part with fewest items on
+     * range is walked, the weights tell which without a scan; each of its items
+     * is kept if its own name holds every other part, rarest part first, so no
+     * other item set is walked or built. An item is counted once, even if its
+     * name repeats a part.
+     * @param parts partial names, at least one
+     * @param low lower bound, inclusive
+     * @param high upper bound, inclusive
+     * @return the number of items satisfy all conditions
+     */
+    public int findPriceRange(long[] parts, long low, long high) {
+        long[] rarest = byWeight(parts, low, high);
+        if (rarest == null) {
+            return 0;
+        }
+
+        LongRedBlackBST<ItemListHead>.Cursor cursor = namePriceMap.get(rarest[0]).cursor();
+        cursor.reset(low, high);
+        int count = 0;
+        while (cursor.hasNext()) {
+            count += countHaving(cursor.next(), rarest, Integer.MAX_VALUE);
+        }
+        return count;
+    }
+
+    /**
+     * Find the minimum price of items whose name has every given partial name,
+     * walking the lists of the rarest part from the cheapest until one item has
+     * every other part
+     * @param parts partial names, at least one
+     * @return the price of item if found, 0 not exists
+     * @see #findPriceRange(long[], long, long)
+     */
+    public long findMinPrice(long[] parts) {
+        long[] rarest = byWeight(parts, Long.MIN_VALUE, Long.MAX_VALUE);
+        if (rarest == null) {
+            return 0;
+        }
+
+        LongRedBlackBST<ItemListHead>.Cursor cursor = namePriceMap.get(rarest[0]).cursor();
+        cursor.reset(Long.MIN_VALUE, Long.MAX_VALUE);
+        while (cursor.hasNext()) {
+            ItemListHead head = cursor.next();
+            if (countHaving(head, rarest, 1) > 0) {
+                return head.price;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return a copy of parts by ascending number of items on price range [low, high],
+     * null if a part has none
+     */
+    private long[] byWeight(long[] parts, long low, long high) {
+        if (parts.length == 0) {
+            throw new IllegalArgumentException("No partial name given");
+        }
+        long[] sorted = parts.clone();
+        int[] weights = new int[parts.length];
+        // insertion sort, a query names a few parts
+        for (int i = 0; i < sorted.length; i++) {
+            LongRedBlackBST<ItemListHead> priceMap = namePriceMap.get(sorted[i]);
+            int weight = priceMap == null ? 0 : priceMap.weight(low, high);
+            if (weight <= 0) {
+                return null;
+            }
+            long part = sorted[i];
+            int j = i;
+            for (; j > 0 && weights[j - 1] > weight; j--) {
+                sorted[j] = sorted[j - 1];
+                weights[j] = weights[j - 1];
+            }
+            sorted[j] = part;
+            weights[j] = weight;
+        }
+        return sorted;
+    }
+
+    /**
+     * Count items of the list of head, a list of part parts[0], whose name also
+     * holds parts[1..]; an item is met once per aisle of parts[0] and counted at
+     * its first one
+     * @param max count to stop at
+     */
+    private static int countHaving(ItemListHead head, long[] parts, int max) {
+        int count = 0;
+        Item item = head.next;
+        int aisle = head.nextAisle;
+        while (item != null && count < max) {
+            if (item.whichAisle(parts[0]) == aisle && hasAll(item, parts)) {
+                count++;
+            }
+            Item next = item.next[aisle];
+            aisle = item.nextAisle[aisle];
+            item = next;
+        }
+        return count;
+    }
+
+    // whether name of item holds every part after the first
+    private static boolean hasAll(Item item, long[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            if (item.whichAisle(parts[i]) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Count items whose id is on [idLo, idHi] and price on [priceLo, priceHi].
+     * The first box query indexes every item by id and price, in O(n log n);
+     * from then on every update keeps that index too, and a count takes
+     * O(log^2 n).
+     * @param idLo lower bound of id, inclusive
+     * @param idHi upper bound of id, inclusive
+     * @param priceLo lower bound of price, inclusive
+     * @param priceHi upper bound of price, inclusive
+     * @return the number of items in the box
+     */
+    public int countInBox(long idLo, long idHi, long priceLo, long priceHi) {
+        return boxIndex().count(idLo, idHi, priceLo, priceHi);
+    }
+
+    /**
+     * Find items whose id is on [idLo, idHi] and price on [priceLo, priceHi],
+     * in no set order
+     * @param ids receives the id of each item found
+     * @param prices receives the price of each item found, as long as ids
+     * @return the number of items written, at most ids.length; countInBox tells
+     * whether there are more
+     * @see #countInBox(long, long, long, long)
+     */
+    public int itemsInBox(long idLo, long idHi, long priceLo, long priceHi, long[] ids, long[] prices) {
+        if (prices.length < ids.length) {
+            throw new IllegalArgumentException("Prices shorter than ids");
+        }
+        return boxIndex().list(idLo, idHi, priceLo, priceHi, ids, prices);
+    }
+
+    private IdPriceIndex boxIndex() {
+        if (boxIndex == null) {
+            // own cursor, hikeCursor may be in use by a caller
+            boxIndex = IdPriceIndex.build(itemTree.cursor());
+        }
+        return boxIndex;
     }
 
     DecimalFormat priceFormat = new DecimalFormat("##.##");
@@ -187,24 +492,177 @@ public class Store {
             return 0;
         }
 
-        LinkedList<Node<Long, Item>> itemsOnRange = itemTree.getNodesOnRange(l, h);
-        long increase = 0;
+        return applyHike(collectHike(l, h, r), r);
+    }
 
-        for (Node<Long, Item> node : itemsOnRange) {
-            Item item = node.val;
-            long oldPrice = item.price;
+    /**
+     * Same as priceHike, with the work split over pool when many items move:
+     * new prices are computed by tasks over parts of the moved items, then the
+     * name price map is updated by tasks that each own a set of partial names,
+     * so no two tasks touch the same price tree or list and no lock is taken.
+     * The store must not be used by any other thread meanwhile.
+     * @param l lower bound, inclusive
+     * @param h upper bound, inclusive
+     * @param r increase rate times 100
+     * @param pool runs the tasks
+     * @return the sum of the net increases of the prices, same as priceHike
+     */
+    public long priceHike(long l, long h, int r, ForkJoinPool pool) {
+        if (r <= 0 || r > 100) {
+            return 0;
+        }
 
-            long incre = (item.price * r) / 100;
-            item.price += incre;
-            //item.detachFromAllLists();
-            clearAndUpdateNamePriceMap(item, oldPrice, false);
+        int moved = collectHike(l, h, r);
+        if (moved < PARALLEL_HIKE_MIN) {
+            return applyHike(moved, r);
+        }
 
-            increase += incre;
+        long increase = pool.invoke(new Raise(0, moved, r));
+        PartBuckets buckets = bucketByPart(hikeItems, moved);
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        LongRedBlackBST<ItemListHead>[] rebuilt = (LongRedBlackBST<ItemListHead>[]) new LongRedBlackBST[buckets.count];
+        pool.invoke(new Regroup(buckets, 0, buckets.count, rebuilt));
+        // only now is the top level map written, by this thread alone
+        for (int b = 0; b < buckets.count; b++) {
+            if (rebuilt[b] != null) {
+                namePriceMap.put(buckets.parts[b], rebuilt[b]);
+            }
         }
+        hikeBoxIndex(moved);
+        Arrays.fill(hikeItems, 0, moved, null);
 
         return increase;
     }
 
+    /**
+     * Collect every item on [l, h] whose price changes by rate r into hikeItems,
+     * prices are not changed yet
+     * @return number of items collected
+     */
+    private int collectHike(long l, long h, int r) {
+        // name price map is changed after the walk, and item tree never, so cursor is safe
+        LongCursor<Item> cursor = hikeCursor;
+        cursor.reset(l, h);
+        int moved = 0;
+
+        while (cursor.hasNext()) {
+            Item item = cursor.next();
+            if ((item.price * r) / 100 == 0) {
+                // same price, stays in its lists
+                continue;
+            }
+
+            if (moved == hikeItems.length) {
+                hikeItems = Arrays.copyOf(hikeItems, moved << 1);
+                hikeOldPrices = Arrays.copyOf(hikeOldPrices, moved << 1);
+            }
+            hikeItems[moved++] = item;
+        }
+        return moved;
+    }
+
+    // raise the price of hikeItems[i] by rate r, keep the old one; the increase
+    private long raise(int i, int r) {
+        Item item = hikeItems[i];
+        long incre = (item.price * r) / 100;
+        hikeOldPrices[i] = item.price;
+        item.price += incre;
+        return incre;
+    }
+
+    /**
+     * Raise the prices of the moved items in this thread, and move them in the
+     * name price map one by one, or in bulk when they are many
+     */
+    private long applyHike(int moved, int r) {
+        long increase = 0;
+        for (int i = 0; i < moved; i++) {
+            increase += raise(i, r);
+        }
+
+        if (moved >= BULK_HIKE_MIN && moved >= itemTree.size() / BULK_HIKE_SHARE) {
+            PartBuckets buckets = bucketByPart(hikeItems, moved);
+            for (int b = 0; b < buckets.count; b++) {
+                LongRedBlackBST<ItemListHead> priceMap = regroup(buckets, b);
+                if (priceMap != null) {
+                    namePriceMap.put(buckets.parts[b], priceMap);
+                }
+            }
+        } else {
+            for (int i = 0; i < moved; i++) {
+                clearAndUpdateNamePriceMap(hikeItems[i], hikeOldPrices[i], false);
+            }
+        }
+        hikeBoxIndex(moved);
+        Arrays.fill(hikeItems, 0, moved, null);
+
+        return increase;
+    }
+
+    // move the hiked items in the box index, if there is one, from their old prices
+    private void hikeBoxIndex(int moved) {
+        if (boxIndex != null) {
+            for (int i = 0; i < moved; i++) {
+                boxIndex.setPrice(hikeItems[i].id, hikeOldPrices[i], hikeItems[i]);
+            }
+        }
+    }
+
+    // sum of raise over hikeItems[from, to), forked down to HIKE_TASK_ITEMS items
+    private final class Raise extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private final int from, to, r;
+
+        Raise(int from, int to, int r) {
+            this.from = from;
+            this.to = to;
+            this.r = r;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from <= HIKE_TASK_ITEMS) {
+                long increase = 0;
+                for (int i = from; i < to; i++) {
+                    increase += raise(i, r);
+                }
+                return increase;
+            }
+            int mid = (from + to) >>> 1;
+            Raise left = new Raise(from, mid, r);
+            left.fork();
+            long right = new Raise(mid, to, r).compute();
+            return left.join() + right;
+        }
+    }
+
+    // regroup of buckets [from, to), forked down to HIKE_TASK_ITEMS slots or one bucket
+    private final class Regroup extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final PartBuckets buckets;
+        private final int from, to;
+        private final LongRedBlackBST<ItemListHead>[] rebuilt;
+
+        Regroup(PartBuckets buckets, int from, int to, LongRedBlackBST<ItemListHead>[] rebuilt) {
+            this.buckets = buckets;
+            this.from = from;
+            this.to = to;
+            this.rebuilt = rebuilt;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1 || buckets.starts[to] - buckets.starts[from] <= HIKE_TASK_ITEMS) {
+                for (int b = from; b < to; b++) {
+                    rebuilt[b] = regroup(buckets, b);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Regroup(buckets, from, mid, rebuilt), new Regroup(buckets, mid, to, rebuilt));
+        }
+    }
+
     /**
      * Very important helper function.
      * 1. Because inside the item, there are next and prev arrays of item pointer, that pointer to other items
@@ -221,9 +679,8 @@ public class Store {
         int[] sizes = new int[item.name.length];
         // fora each partial name
         for (int i = 0; i < item.name.length; i++) {
-            long pName = item.name[i];
             // detach from the internal list in item
-            int size = item.detachFromList(pName);
+            int size = item.detachFromList(i);
             // if the length of list is zero, that means we need to remove list head
             // from second level structure of namePriceMap
             sizes[i] = size;
@@ -233,14 +690,17 @@ public class Store {
         for (int i = 0; i < sizes.length; i++) {
             if (sizes[i] == 0) {
                 long pName = item.name[i];
-                RedBlackBST<Long, ItemListHead> priceMap = namePriceMap.get(pName);
+                LongRedBlackBST<ItemListHead> priceMap = namePriceMap.get(pName);
                 // remove from second RBTree
                 priceMap.delete(oldPrice);
 
                 // remove spots from top hash map
                 if (priceMap.isEmpty()) {
-                    namePriceMap.remove(priceMap);
+                    namePriceMap.remove(pName);
                 }
+            } else {
+                // list still alive, keep the item count of price tree in step
+                namePriceMap.get(item.name[i]).addWeight(oldPrice, -1);
             }
         }
 
@@ -257,158 +717,506 @@ public class Store {
      * @param item already detached from item doubly linked list
      */
     private void updateNamePriceMap(Item item) {
-        for (long partName : item.name) {
-            RedBlackBST<Long, ItemListHead> priceMap = namePriceMap.get(partName);
+        for (int aisle = 0; aisle < item.name.length; aisle++) {
+            long partName = item.name[aisle];
+            LongRedBlackBST<ItemListHead> priceMap = namePriceMap.get(partName);
 
             if (priceMap == null) {
-                priceMap = new RedBlackBST<Long, ItemListHead>();
+                priceMap = new LongRedBlackBST<ItemListHead>();
                 namePriceMap.put(partName, priceMap);
             }
 
+            attach(priceMap, item, aisle);
+        }
+    }
 
-            // already existed
-            ItemListHead head = priceMap.get(item.price);
-            if (head == null) {
-                head = new ItemListHead();
-                priceMap.put(item.price, head);
+    // add aisle of item to the list of its price, created if absent
+    private static void attach(LongRedBlackBST<ItemListHead> priceMap, Item item, int aisle) {
+        // already existed
+        ItemListHead head = priceMap.get(item.price);
+        if (head == null) {
+            head = new ItemListHead(item.price);
+            priceMap.put(item.price, head);
+        }
+
+        // add this item after head, constant time
+        head.addFirst(item, aisle);
+        priceMap.addWeight(item.price, 1);
+    }
+
+    /**
+     * Move the slots of bucket b, items whose price changed, to the lists of
+     * their new price in one go: the slots are detached first, then the price
+     * tree of the part is rebuilt if it gets many moves for its size, by merging
+     * its surviving lists with the slots sorted by new price, or patched if not.
+     * Only lists and the tree of this part are touched, namePriceMap is read.
+     * @param buckets moved items bucketed by partial name, at their new price and
+     *                still in the lists of the old one
+     * @param b       bucket to move
+     * @return the rebuilt tree, to replace the one in namePriceMap; null if patched
+     */
+    private LongRedBlackBST<ItemListHead> regroup(PartBuckets buckets, int b) {
+        long part = buckets.parts[b];
+        int from = buckets.starts[b];
+        int to = buckets.starts[b + 1];
+        for (int i = from; i < to; i++) {
+            buckets.slots[i].detachFromList(buckets.aisles[i]);
+        }
+
+        LongRedBlackBST<ItemListHead> priceMap = namePriceMap.get(part);
+        if ((to - from) * REBUILD_RATIO >= priceMap.size()) {
+            return rebuild(priceMap, part, buckets.slots, from, to);
+        }
+
+        // old lists lose one item a slot, an emptied one is dropped once
+        for (int i = from; i < to; i++) {
+            ItemListHead head = (ItemListHead) buckets.slots[i].head[buckets.aisles[i]];
+            if (head.size > 0) {
+                priceMap.addWeight(head.price, -1);
+            } else if (priceMap.get(head.price) == head) {
+                priceMap.delete(head.price);
             }
+        }
+        for (int i = from; i < to; i++) {
+            attach(priceMap, buckets.slots[i], buckets.aisles[i]);
+        }
+        return null;
+    }
 
-            // add this item after head, constant time
-            head.addFirst(item, partName);
+    /**
+     * Price tree of part after the moves: its lists left non empty merged in one
+     * pass with slots sorted by new price, then built from sorted in linear time
+     */
+    private static LongRedBlackBST<ItemListHead> rebuild(LongRedBlackBST<ItemListHead> priceMap, long part,
+                                                         Item[] slots, int from, int to) {
+        Arrays.sort(slots, from, to, BY_PRICE);
+        long[] prices = new long[priceMap.size() + to - from];
+        ItemListHead[] heads = new ItemListHead[prices.length];
+
+        LongCursor<ItemListHead> lists = priceMap.cursor();
+        lists.reset(Long.MIN_VALUE, Long.MAX_VALUE);
+        ItemListHead list = nextNonEmpty(lists);
+        int n = 0;
+        int aisle = -1;
+        int i = from;
+        while (list != null || i < to) {
+            // an old list goes first on a tie, the moves of its price join it
+            if (list != null && (i == to || list.price <= slots[i].price)) {
+                prices[n] = list.price;
+                heads[n++] = list;
+                list = nextNonEmpty(lists);
+                continue;
+            }
+
+            Item item = slots[i];
+            // a name that repeats the part has its slots side by side, in aisle order
+            aisle = item.whichAisle(part, i > from && slots[i - 1] == item ? aisle + 1 : 0);
+            if (n == 0 || prices[n - 1] != item.price) {
+                prices[n] = item.price;
+                heads[n++] = new ItemListHead(item.price);
+            }
+            heads[n - 1].addFirst(item, aisle);
+            i++;
         }
+
+        int[] weights = new int[n];
+        for (int k = 0; k < n; k++) {
+            weights[k] = heads[k].size;
+        }
+        return LongRedBlackBST.buildFromSorted(prices, heads, weights, n);
     }
 
-    public static void main(String[] args) {
-        BufferedReader reader;
+    private static ItemListHead nextNonEmpty(LongCursor<ItemListHead> lists) {
+        while (lists.hasNext()) {
+            ItemListHead list = lists.next();
+            if (list.size > 0) {
+                return list;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * **********************************************************************
+     * Snapshot
+     * ***********************************************************************
+     */
+
+    // "MDSS", version, item count
+    static final int SNAPSHOT_MAGIC = ('M' << 24) | ('D' << 16) | ('S' << 8) | 'S';
+    static final byte SNAPSHOT_VERSION = 1;
+    static final int SNAPSHOT_HEADER = 4 + 1 + 8;
+    // id, price, name length
+    static final int SNAPSHOT_RECORD_HEAD = 8 + 8 + 4;
 
+    private static final int SNAPSHOT_WINDOW = 1 << 28;
+    private static final int SNAPSHOT_BUFFER = 1 << 20;
+
+    /**
+     * Write every item to a binary image, in id order. The image is written to a
+     * temporary file next to path, forced to disk and then renamed over path, so
+     * path always holds a complete image.
+     * <pre>
+     *     header   magic(4) version(1) count(8)
+     *     item     id(8) price(8) length(4) part(8)...
+     * </pre>
+     * @param path image file, replaced if exists
+     * @throws IOException if writing fails
+     */
+    public void snapshot(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
         try {
-            if (args.length > 0) {
-                reader = new BufferedReader(new FileReader(args[0]));
-            } else {
-                reader = new BufferedReader(new InputStreamReader(System.in));
+            ByteBuffer out = ByteBuffer.allocateDirect(SNAPSHOT_BUFFER);
+            out.putInt(SNAPSHOT_MAGIC);
+            out.put(SNAPSHOT_VERSION);
+            out.putLong(itemTree.size());
+
+            // own cursor, hikeCursor may be in use by a caller
+            LongCursor<Item> cursor = itemTree.cursor();
+            cursor.reset(Long.MIN_VALUE, Long.MAX_VALUE);
+            while (cursor.hasNext()) {
+                Item item = cursor.next();
+                int size = SNAPSHOT_RECORD_HEAD + 8 * item.name.length;
+                if (out.remaining() < size) {
+                    BinaryWorkload.drain(channel, out);
+                    if (out.capacity() < size) {
+                        throw new IOException("Name too long of item " + item.id);
+                    }
+                }
+                out.putLong(item.id);
+                out.putLong(item.price);
+                out.putInt(item.name.length);
+                for (long part : item.name) {
+                    out.putLong(part);
+                }
             }
+            BinaryWorkload.drain(channel, out);
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
 
-            double output = 0;
-
-            Store store = new Store();
+    /**
+     * Load a store from an image written by snapshot. The image is memory mapped
+     * and every index is built in bulk from the items in id order, no insert runs.
+     * @param path image file
+     * @return new store holding every item of the image
+     * @throws IOException if file can not be mapped or is not an image
+     */
+    public static Store restore(Path path) throws IOException {
+        return restore(path, IdIndex.RED_BLACK);
+    }
 
-            String line;
-            DecimalFormat outputFormat = new DecimalFormat("##.##");
-            outputFormat.setRoundingMode(RoundingMode.HALF_UP);
+    /**
+     * @param idIndex structure of the id range index of the new store
+     * @see #restore(Path)
+     */
+    public static Store restore(Path path, IdIndex idIndex) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, SNAPSHOT_WINDOW));
+            if (size < SNAPSHOT_HEADER || in.getInt() != SNAPSHOT_MAGIC || in.get() != SNAPSHOT_VERSION) {
+                throw new IOException("Not a store snapshot: " + path);
+            }
+            long count = in.getLong();
+            if (count < 0 || count > Integer.MAX_VALUE) {
+                throw new IOException("Bad item count " + count + " in " + path);
+            }
 
-            while ((line = reader.readLine()) != null && !line.equals("")) {
-                if (line.startsWith("#")) {
-                    continue;
+            Item[] items = new Item[(int) count];
+            long base = 0;      // offset in file of index 0 of in
+            for (int i = 0; i < count; i++) {
+                // remap when the next record may cross the end of window
+                if (in.remaining() < SNAPSHOT_RECORD_HEAD
+                        || in.remaining() < SNAPSHOT_RECORD_HEAD + 8L * in.getInt(in.position() + 16)) {
+                    if (base + in.limit() >= size) {
+                        throw new IOException("Truncated store snapshot: " + path);
+                    }
+                    base += in.position();
+                    in = channel.map(FileChannel.MapMode.READ_ONLY, base, Math.min(size - base, SNAPSHOT_WINDOW));
+                    if (in.remaining() < SNAPSHOT_RECORD_HEAD) {
+                        throw new IOException("Truncated store snapshot: " + path);
+                    }
+                }
+                long id = in.getLong();
+                long price = in.getLong();
+                long[] name = new long[in.getInt()];
+                for (int k = 0; k < name.length; k++) {
+                    name[k] = in.getLong();
                 }
+                items[i] = new Item(id, price, name);
+            }
+
+            Store store = new Store(idIndex);
+            store.bulkBuild(items, items.length);
+            return store;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Load many items into an empty store at once: sort them by id once, then
+     * build every index directly as restore does, instead of one insert each.
+     * An id given twice keeps its last item, same as inserting them in order.
+     * @param ids    non negative
+     * @param prices price of each item, times 100
+     * @param names  name of each item, arrays are kept and must not be changed
+     */
+    public void bulkLoad(long[] ids, long[] prices, long[][] names) {
+        if (!itemTree.isEmpty()) {
+            throw new IllegalStateException("Bulk load into a non empty store");
+        }
+        if (ids.length != prices.length || ids.length != names.length) {
+            throw new IllegalArgumentException("Ids, prices and names differ in length");
+        }
+
+        Item[] items = new Item[ids.length];
+        for (int i = 0; i < items.length; i++) {
+            if (names[i] == null) {
+                throw new IllegalArgumentException("No name for item " + ids[i]);
+            }
+            items[i] = new Item(ids[i], prices[i], names[i]);
+        }
+        // stable, a run of equal ids stays in input order; linear if already sorted
+        Arrays.sort(items, BY_ID);
+
+        int n = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (i + 1 < items.length && items[i + 1].id == items[i].id) {
+                continue;
+            }
+            items[n++] = items[i];
+        }
+        bulkBuild(items, n);
+    }
+
+    private static final Comparator<Item> BY_ID = new Comparator<Item>() {
+        public int compare(Item a, Item b) {
+            return a.id < b.id ? -1 : (a.id == b.id ? 0 : 1);
+        }
+    };
+
+    private static final Comparator<Item> BY_PRICE = new Comparator<Item>() {
+        public int compare(Item a, Item b) {
+            return a.price < b.price ? -1 : (a.price == b.price ? 0 : 1);
+        }
+    };
+
+    /**
+     * Replace every index with ones built from items at once: itemMap, if any, sized up
+     * front, itemTree and every price tree built from sorted keys in linear time.
+     * Name slots are bucketed by partial name with a counting sort, and only each
+     * bucket is sorted by price.
+     * @param items distinct ids in strictly increasing order, not linked in any list
+     * @param n     number of items to take
+     */
+    private void bulkBuild(Item[] items, int n) {
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = items[i].id;
+        }
+        if (idIndex != IdIndex.UNIFIED) {
+            itemMap = new LongHashMap<Item>(n);
+            for (int i = 0; i < n; i++) {
+                itemMap.put(ids[i], items[i]);
+            }
+        }
+        if (idIndex == IdIndex.UNIFIED) {
+            itemTree = LongBlockIndex.buildFromSorted(ids, items, n);
+        } else if (idIndex == IdIndex.B_PLUS_TREE) {
+            itemTree = LongBPlusTree.buildFromSorted(ids, items, n);
+        } else {
+            itemTree = LongRedBlackBST.buildFromSorted(ids, items, null, n);
+        }
+        hikeCursor = itemTree.cursor();
+        boxIndex = null;
+
+        PartBuckets buckets = bucketByPart(items, n);
+        Item[] bucketed = buckets.slots;
+        long[] parts = buckets.parts;
+        int[] starts = buckets.starts;
+
+        namePriceMap = new LongHashMap<LongRedBlackBST<ItemListHead>>(buckets.count);
+        long[] prices = new long[16];
+        ItemListHead[] heads = new ItemListHead[16];
+        int[] weights = new int[16];
+        for (int b = 0; b < buckets.count; b++) {
+            int from = starts[b];
+            int to = starts[b + 1];
+            Arrays.sort(bucketed, from, to, BY_PRICE);
+            if (to - from > prices.length) {
+                prices = new long[to - from];
+                heads = new ItemListHead[to - from];
+                weights = new int[to - from];
+            }
 
-                line = line.trim();
-                String[] params = line.split("\\s+");
-                if (params.length < 1) {
-                    System.out.println("Error in data");
-                    System.exit(0);
+            // one list per run of equal prices
+            int lists = 0;
+            int aisle = -1;
+            for (int i = from; i < to; i++) {
+                Item item = bucketed[i];
+                // a name that repeats the part has its slots side by side, in aisle order
+                aisle = item.whichAisle(parts[b], i > from && bucketed[i - 1] == item ? aisle + 1 : 0);
+                if (lists == 0 || prices[lists - 1] != item.price) {
+                    prices[lists] = item.price;
+                    heads[lists] = new ItemListHead(item.price);
+                    weights[lists] = 0;
+                    lists++;
                 }
+                heads[lists - 1].addFirst(item, aisle);
+                weights[lists - 1]++;
+            }
+            namePriceMap.put(parts[b], LongRedBlackBST.buildFromSorted(prices, heads, weights, lists));
+        }
+    }
 
-                String cmd = params[0];
-
-                if (cmd.equals("Insert")) {
-                    int result;
-                    long id = Long.valueOf(params[1]);
-                    //double price = Double.valueOf(params[2]);
-                    String priceStr = params[2];
-                    int nameLength = params.length - 4;
-
-                    if (nameLength == 0) {
-                        // update price
-                        result = store.insert(id, priceStr, null);
-                    } else {
-                        long[] name = new long[nameLength];
-                        for (int i = 0; i < nameLength; i++) {
-                            name[i] = Long.valueOf(params[i + 3]);
-                        }
-                        result = store.insert(id, priceStr, name);
+    /**
+     * Slots of items grouped by partial name, one slot per aisle: bucket b of
+     * part parts[b] is slots[starts[b], starts[b + 1]), in item order, and the
+     * aisle of each slot is in aisles
+     */
+    private static final class PartBuckets {
+        int count;
+        long[] parts;
+        int[] starts;
+        Item[] slots;
+        int[] aisles;
+    }
+
+    // counting sort of the name slots of items by partial name
+    private static PartBuckets bucketByPart(Item[] items, int n) {
+        // number of slots of each partial name
+        LongIntHashMap bucketOf = new LongIntHashMap();
+        long[] parts = new long[16];
+        int[] starts = new int[17];
+        int buckets = 0;
+        int slots = 0;
+        for (int i = 0; i < n; i++) {
+            for (long part : items[i].name) {
+                int b = bucketOf.get(part);
+                if (b < 0) {
+                    b = buckets++;
+                    bucketOf.put(part, b);
+                    if (buckets == parts.length) {
+                        parts = Arrays.copyOf(parts, buckets << 1);
+                        starts = Arrays.copyOf(starts, (buckets << 1) + 1);
                     }
+                    parts[b] = part;
+                }
+                starts[b + 1]++;
+                slots++;
+            }
+        }
+        for (int b = 0; b < buckets; b++) {
+            starts[b + 1] += starts[b];
+        }
+
+        // scatter items to buckets, next free position of bucket b in fill[b]
+        PartBuckets result = new PartBuckets();
+        result.count = buckets;
+        result.parts = parts;
+        result.starts = starts;
+        result.slots = new Item[slots];
+        result.aisles = new int[slots];
+        int[] fill = Arrays.copyOf(starts, buckets);
+        for (int i = 0; i < n; i++) {
+            long[] name = items[i].name;
+            for (int aisle = 0; aisle < name.length; aisle++) {
+                int slot = fill[bucketOf.get(name[aisle])]++;
+                result.slots[slot] = items[i];
+                result.aisles[slot] = aisle;
+            }
+        }
+        return result;
+    }
 
-                    output += result;
-//                    System.out.println(line);
-//                    System.out.println("# " + result);
-                    //output = Double.valueOf(outputFormat.format(output));
-
-                } else if (cmd.equals("Find")) {
-                    long result;
-                    long id = Long.valueOf(params[1]);
-                    result = store.find(id);
-                    double temp = Double.valueOf(Item.priceLongToStr(result));
-                    output += temp;
-//                    System.out.println(line);
-//                    System.out.println("# " + temp);
-                    //output = Double.valueOf(outputFormat.format(output));
-
-                } else if (cmd.equals("Delete")) {
-                    long result;
-                    long id = Long.valueOf(params[1]);
-                    result = store.delete(id);
-
-                    output += result;
-//                    System.out.println(line);
-//                    System.out.println("# " + result);
-                    //output = Double.valueOf(outputFormat.format(output));
-
-                } else if (cmd.equals("FindMinPrice")) {
-                    long result;
-                    long partName = Long.valueOf(params[1]);
-                    result = store.findMinPrice(partName);
-
-                    double temp = Double.valueOf(Item.priceLongToStr(result));
-                    output += temp;
-//                    System.out.println(line);
-//                    System.out.println("# " + temp);
-                    //output = Double.valueOf(outputFormat.format(output));
-
-                } else if (cmd.equals("FindMaxPrice")) {
-                    long result;
-                    long partName = Long.valueOf(params[1]);
-                    result = store.findMaxPrice(partName);
-
-                    double temp = Double.valueOf(Item.priceLongToStr(result));
-                    output += temp;
-//                    System.out.println(line);
-//                    System.out.println("# " + temp);
-                    //output = Double.valueOf(outputFormat.format(output));
-
-                } else if (cmd.equals("FindPriceRange")) {
-                    int result;
-                    long partName = Long.valueOf(params[1]);
-                    long low = Item.priceStrToLong(params[2]);
-                    long high = Item.priceStrToLong(params[3]);
-
-                    result = store.findPriceRange(partName, low, high);
-
-                    output += result;
-//                    System.out.println(line);
-//                    System.out.println("# " + result);
-                    //output = Double.valueOf(outputFormat.format(output));
-
-                } else if (cmd.equals("PriceHike")) {
-                    long result;
-                    long l = Long.valueOf(params[1]);
-                    long h = Long.valueOf(params[2]);
-                    int r = Integer.valueOf(params[3]);
-
-                    result = store.priceHike(l, h, r);
-
-                    double temp = Double.valueOf(Item.priceLongToStr(result));
-                    output += temp;
-//                    System.out.println(line);
-//                    System.out.println("# " + temp);
-                    //output = Double.valueOf(outputFormat.format(output));
+    /**
+     * Run every command against the store and accumulate the results. Commands
+     * returning a count or a name sum add whole units, commands returning a
+     * price add cents, both are kept in fixed point.
+     * @param parser command source
+     * @return accumulated output, units in [0] and cents in [1]
+     * @throws IOException if reading fails
+     */
+    public long[] run(CommandParser parser) throws IOException {
+        long units = 0;
+        long cents = 0;
+
+        int cmd;
+        while ((cmd = parser.nextCommand()) != CommandParser.END) {
+            switch (cmd) {
+                case CommandParser.INSERT: {
+                    long id = parser.nextLong();
+                    long price = parser.nextPrice();
+                    // null name means update price
+                    long[] name = parser.nextName();
+                    units += insert(id, price, name);
+                    break;
+                }
+                case CommandParser.FIND:
+                    cents += find(parser.nextLong());
+                    break;
+                case CommandParser.DELETE:
+                    units += delete(parser.nextLong());
+                    break;
+                case CommandParser.FIND_MIN_PRICE:
+                    cents += findMinPrice(parser.nextLong());
+                    break;
+                case CommandParser.FIND_MAX_PRICE:
+                    cents += findMaxPrice(parser.nextLong());
+                    break;
+                case CommandParser.FIND_PRICE_RANGE: {
+                    long partName = parser.nextLong();
+                    long low = parser.nextPrice();
+                    long high = parser.nextPrice();
+                    units += findPriceRange(partName, low, high);
+                    break;
+                }
+                case CommandParser.PRICE_HIKE: {
+                    long l = parser.nextLong();
+                    long h = parser.nextLong();
+                    int r = (int) parser.nextLong();
+                    cents += priceHike(l, h, r);
+                    break;
                 }
             }
+        }
+
+        return new long[]{units, cents};
+    }
+
+    /**
+     * Output of run as printed by main, rounded to two decimals
+     * @param output units in [0] and cents in [1]
+     * @return string represented output
+     */
+    public static String outputToStr(long[] output) {
+        double value = BigDecimal.valueOf(output[0]).add(BigDecimal.valueOf(output[1], 2)).doubleValue();
+        DecimalFormat outputFormat = new DecimalFormat("##.##");
+        outputFormat.setRoundingMode(RoundingMode.HALF_UP);
+        return Double.toString(Double.valueOf(outputFormat.format(value)));
+    }
 
+    public static void main(String[] args) {
+        try {
+            CommandParser parser;
+            if (args.length > 0) {
+                parser = CommandParser.open(Paths.get(args[0]));
+            } else {
+                parser = CommandParser.open(System.in);
+            }
 
-            output = Double.valueOf(outputFormat.format(output));
-            System.out.println(Double.toString(output));
+            Store store = new Store();
+            long[] output = store.run(parser);
+            parser.close();
 
-            reader.close();
+            System.out.println(outputToStr(output));
         } catch (IOException e) {
             e.printStackTrace();
         }
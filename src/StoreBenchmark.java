@@ -0,0 +1,477 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Micro benchmark of Store operations, parameterized by store size, name length
+ * and price distribution.
+ * <p/>
+ * Every benchmark runs warmup iterations and then measured iterations of a fixed
+ * number of operations. It reports throughput, average time per operation, bytes
+ * allocated per operation and allocation rate of the benchmark thread, and the
+ * collections and GC time spent during measurement.
+ * <p/>
+ * java StoreBenchmark [size=10000,100000] [nameLength=1,4,16]
+ * [prices=UNIFORM,NARROW,SKEWED] [bench=insert,find,...] [index=RED_BLACK,...]
+ * [iterations=5] [warmups=3]
+ * <p/>
+ * java StoreBenchmark file=workload.txt,workload.bin [iterations=5] [warmups=3]
+ * replays whole workloads instead, e.g. written by WorkloadGenerator, text files
+ * through CommandParser and binary files through BinaryWorkload. One operation is
+ * one full replay into a new store.
+ */
+public class StoreBenchmark {
+
+    enum PriceDistribution {
+        UNIFORM,    // cents uniform on [1, 1000000)
+        NARROW,     // few distinct prices, many items per (name, price) list
+        SKEWED      // most items cheap, long tail of expensive ones
+    }
+
+    // id index of every store a benchmark creates
+    static Store.IdIndex idIndex = Store.IdIndex.RED_BLACK;
+
+    static final String[] BENCHMARKS = {"insert", "find", "delete", "findMinPrice", "findMaxPrice",
+            "findPriceRange", "findPriceRangeAll", "topKCheapest", "countInBox", "priceHike", "wideHike", "parallelHike", "restore", "bulkLoad"};
+
+    /**
+     * One benchmark, setup is called before every iteration and not measured
+     */
+    static abstract class Bench {
+        void setup() {
+        }
+
+        // run operation i, result is consumed so the call can not be eliminated
+        abstract long run(int i);
+    }
+
+    /**
+     * Measured numbers of one benchmark
+     */
+    static class Result {
+        String name;
+        double opsPerSecond;
+        double nanosPerOp;
+        double bytesPerOp;
+        double allocMBPerSecond;
+        long gcCount;
+        long gcMillis;
+
+        @Override
+        public String toString() {
+            return String.format("%-48s %14.1f ops/s %12.1f ns/op %10.1f B/op %9.1f MB/s %4d gc %6d ms",
+                    name, opsPerSecond, nanosPerOp, bytesPerOp, allocMBPerSecond, gcCount, gcMillis);
+        }
+    }
+
+    static long blackhole;
+
+    /**
+     * Run warmups, then measure iterations of opsPerIteration operations each
+     */
+    static Result measure(String name, Bench bench, int opsPerIteration, int warmups, int iterations) {
+        for (int w = 0; w < warmups; w++) {
+            bench.setup();
+            for (int i = 0; i < opsPerIteration; i++) {
+                blackhole += bench.run(i);
+            }
+        }
+
+        long nanos = 0;
+        long bytes = 0;
+        long gcCount = -gcCount();
+        long gcMillis = -gcMillis();
+        for (int it = 0; it < iterations; it++) {
+            bench.setup();
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            for (int i = 0; i < opsPerIteration; i++) {
+                blackhole += bench.run(i);
+            }
+            nanos += System.nanoTime() - start;
+            bytes += allocatedBytes() - allocated;
+        }
+        gcCount += gcCount();
+        gcMillis += gcMillis();
+
+        long ops = (long) opsPerIteration * iterations;
+        Result result = new Result();
+        result.name = name;
+        result.opsPerSecond = ops * 1e9 / nanos;
+        result.nanosPerOp = (double) nanos / ops;
+        result.bytesPerOp = (double) bytes / ops;
+        result.allocMBPerSecond = bytes * 1e9 / nanos / (1 << 20);
+        result.gcCount = gcCount;
+        result.gcMillis = gcMillis;
+        return result;
+    }
+
+    // bytes allocated so far by current thread, 0 if the JVM can not tell
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * **********************************************************************
+     * Data set
+     * ***********************************************************************
+     */
+
+    /**
+     * Items to load and queries to ask, generated once per parameter combination
+     */
+    static class DataSet {
+        final int size;
+        final long[] ids;
+        final long[] prices;
+        final long[][] names;
+        final long[] missingIds;    // ids not in store
+        final long vocabulary;      // name parts are in [1, vocabulary]
+
+        DataSet(int size, int nameLength, PriceDistribution prices, long seed) {
+            Random random = new Random(seed);
+            this.size = size;
+            this.vocabulary = Math.max(16, size / 8);
+
+            // shuffled distinct ids in [0, 2 * size), the rest are missing
+            long[] all = new long[2 * size];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            for (int i = all.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                long t = all[i];
+                all[i] = all[j];
+                all[j] = t;
+            }
+            ids = Arrays.copyOf(all, size);
+            missingIds = Arrays.copyOfRange(all, size, all.length);
+
+            this.prices = new long[size];
+            this.names = new long[size][];
+            for (int i = 0; i < size; i++) {
+                this.prices[i] = price(prices, random);
+                // distinct parts, an item lists each name part once
+                long[] name = new long[nameLength];
+                for (int k = 0; k < nameLength; k++) {
+                    boolean duplicate;
+                    do {
+                        name[k] = 1 + (long) (random.nextDouble() * vocabulary);
+                        duplicate = false;
+                        for (int j = 0; j < k; j++) {
+                            duplicate |= name[j] == name[k];
+                        }
+                    } while (duplicate);
+                }
+                this.names[i] = name;
+            }
+        }
+
+        static long price(PriceDistribution distribution, Random random) {
+            switch (distribution) {
+                case NARROW:
+                    return 100 * (1 + random.nextInt(20));
+                case SKEWED:
+                    return 1 + (long) (Math.pow(random.nextDouble(), 4) * 1000000);
+                default:
+                    return 1 + random.nextInt(999999);
+            }
+        }
+
+        Store load() {
+            Store store = new Store(idIndex);
+            for (int i = 0; i < size; i++) {
+                store.insert(ids[i], prices[i], names[i].clone());
+            }
+            return store;
+        }
+    }
+
+    /**
+     * **********************************************************************
+     * Benchmarks
+     * ***********************************************************************
+     */
+
+    static Bench create(String benchmark, final DataSet data) {
+        final int size = data.size;
+        final Random random = new Random(42);
+
+        if (benchmark.equals("insert")) {
+            return new Bench() {
+                Store store;
+
+                void setup() {
+                    store = new Store(idIndex);
+                }
+
+                long run(int i) {
+                    return store.insert(data.ids[i], data.prices[i], data.names[i].clone());
+                }
+            };
+        }
+        if (benchmark.equals("bulkLoad")) {
+            return new Bench() {
+                long run(int i) {
+                    Store store = new Store(idIndex);
+                    store.bulkLoad(data.ids, data.prices, data.names);
+                    return store.size();
+                }
+            };
+        }
+        if (benchmark.equals("delete")) {
+            return new Bench() {
+                Store store;
+
+                void setup() {
+                    store = data.load();
+                }
+
+                long run(int i) {
+                    return store.delete(data.ids[i]);
+                }
+            };
+        }
+
+        final Store store = data.load();
+        if (benchmark.equals("find")) {
+            return new Bench() {
+                long run(int i) {
+                    // half hits, half misses
+                    return store.find((i & 1) == 0 ? data.ids[i % size] : data.missingIds[i % size]);
+                }
+            };
+        }
+        if (benchmark.equals("findMinPrice")) {
+            return new Bench() {
+                long run(int i) {
+                    return store.findMinPrice(1 + i % data.vocabulary);
+                }
+            };
+        }
+        if (benchmark.equals("findMaxPrice")) {
+            return new Bench() {
+                long run(int i) {
+                    return store.findMaxPrice(1 + i % data.vocabulary);
+                }
+            };
+        }
+        if (benchmark.equals("findPriceRange")) {
+            return new Bench() {
+                long run(int i) {
+                    long low = random.nextInt(500000);
+                    return store.findPriceRange(1 + i % data.vocabulary, low, low + random.nextInt(500000));
+                }
+            };
+        }
+        if (benchmark.equals("findPriceRangeAll")) {
+            return new Bench() {
+                final long[] parts = new long[2];
+
+                long run(int i) {
+                    // items having both of two partial names
+                    parts[0] = 1 + i % data.vocabulary;
+                    parts[1] = 1 + random.nextInt((int) data.vocabulary);
+                    long low = random.nextInt(500000);
+                    return store.findPriceRange(parts, low, low + random.nextInt(500000));
+                }
+            };
+        }
+        if (benchmark.equals("topKCheapest")) {
+            return new Bench() {
+                final long[] ids = new long[10];
+                final long[] prices = new long[10];
+
+                long run(int i) {
+                    // a page of ten offers
+                    return store.topKCheapest(1 + i % data.vocabulary, 10, ids, prices) + ids[0];
+                }
+            };
+        }
+        if (benchmark.equals("countInBox")) {
+            return new Bench() {
+                long run(int i) {
+                    // one percent of id space, half of price range; the first call builds the index
+                    long l = random.nextInt(2 * size);
+                    long low = random.nextInt(500000);
+                    return store.countInBox(l, l + size / 50, low, low + 500000);
+                }
+            };
+        }
+        if (benchmark.equals("priceHike")) {
+            return new Bench() {
+                long run(int i) {
+                    // one percent of id space, rate 1% so prices stay bounded
+                    long l = random.nextInt(2 * size);
+                    return store.priceHike(l, l + size / 50, 1);
+                }
+            };
+        }
+        if (benchmark.equals("wideHike")) {
+            return new Bench() {
+                long run(int i) {
+                    // half of id space, every other item of store moves
+                    long l = random.nextInt(size);
+                    return store.priceHike(l, l + size, 1);
+                }
+            };
+        }
+        if (benchmark.equals("parallelHike")) {
+            return new Bench() {
+                long run(int i) {
+                    // wideHike split over the common pool
+                    long l = random.nextInt(size);
+                    return store.priceHike(l, l + size, 1, ForkJoinPool.commonPool());
+                }
+            };
+        }
+        if (benchmark.equals("restore")) {
+            return new Bench() {
+                Path image;
+
+                void setup() {
+                    if (image != null) {
+                        return;
+                    }
+                    try {
+                        image = Files.createTempFile("store", ".snapshot");
+                        image.toFile().deleteOnExit();
+                        store.snapshot(image);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                long run(int i) {
+                    try {
+                        return Store.restore(image, idIndex).size();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        throw new IllegalArgumentException("Unknown benchmark " + benchmark);
+    }
+
+    static Bench replay(final String file) {
+        final Path path = Paths.get(file);
+        final boolean binary = file.endsWith(".bin");
+        return new Bench() {
+            long run(int i) {
+                try {
+                    long[] output;
+                    if (binary) {
+                        output = BinaryWorkload.replay(path, new Store(idIndex));
+                    } else {
+                        CommandParser parser = CommandParser.open(path);
+                        output = new Store(idIndex).run(parser);
+                        parser.close();
+                    }
+                    return output[0] + output[1];
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    // operations per iteration, insert and delete are bounded by store size
+    static int opsPerIteration(String benchmark, int size) {
+        if (benchmark.equals("insert") || benchmark.equals("delete")) {
+            return size;
+        }
+        if (benchmark.equals("priceHike")) {
+            return Math.max(1, 20000000 / size);
+        }
+        if (benchmark.equals("wideHike") || benchmark.equals("parallelHike")) {
+            return 2;
+        }
+        if (benchmark.equals("restore") || benchmark.equals("bulkLoad")) {
+            // one whole store per operation
+            return 1;
+        }
+        return Math.max(size, 100000);
+    }
+
+    // value of key=a,b,c argument, default if absent
+    static String[] param(String[] args, String key, String... defaults) {
+        for (String arg : args) {
+            if (arg.startsWith(key + "=")) {
+                return arg.substring(key.length() + 1).split(",");
+            }
+        }
+        return defaults;
+    }
+
+    public static void main(String[] args) {
+        String[] sizes = param(args, "size", "10000", "100000");
+        String[] nameLengths = param(args, "nameLength", "1", "4", "16");
+        String[] prices = param(args, "prices", "UNIFORM", "NARROW", "SKEWED");
+        String[] benchmarks = param(args, "bench", BENCHMARKS);
+        String[] indexes = param(args, "index", Store.IdIndex.RED_BLACK.name());
+        int iterations = Integer.parseInt(param(args, "iterations", "5")[0]);
+        int warmups = Integer.parseInt(param(args, "warmups", "3")[0]);
+
+        List<Result> results = new ArrayList<Result>();
+        idIndex = Store.IdIndex.valueOf(indexes[0]);
+        for (String file : param(args, "file")) {
+            Result result = measure("replay " + file, replay(file), 1, warmups, iterations);
+            System.out.println(result);
+            results.add(result);
+        }
+        if (!results.isEmpty()) {
+            sizes = new String[0];
+        }
+
+        for (String size : sizes) {
+            for (String nameLength : nameLengths) {
+                for (String price : prices) {
+                    DataSet data = new DataSet(Integer.parseInt(size), Integer.parseInt(nameLength),
+                            PriceDistribution.valueOf(price), 1);
+                    for (String index : indexes) {
+                        idIndex = Store.IdIndex.valueOf(index);
+                        for (String benchmark : benchmarks) {
+                            String name = benchmark + " size=" + size + " nameLength=" + nameLength + " " + price
+                                    + (indexes.length > 1 ? " " + index : "");
+                            Bench bench = create(benchmark, data);
+                            Result result = measure(name, bench, opsPerIteration(benchmark, data.size), warmups, iterations);
+                            System.out.println(result);
+                            results.add(result);
+                        }
+                    }
+                }
+            }
+        }
+
+        System.out.println("# " + results.size() + " benchmarks, blackhole " + blackhole);
+    }
+}
@@ -0,0 +1,274 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Generate command files in Store.main format with a realistic skew.
+ * <p/>
+ * The file starts with a preload of Insert commands, then a mix of all commands.
+ * Name parts are drawn from a Zipf distribution over the vocabulary, for both
+ * names of inserted items and name queries, so a few hot name parts own most
+ * items like in production.
+ * <p/>
+ * java WorkloadGenerator [key=value]... [output file, stdout if absent]
+ * <pre>
+ *     items=100000          Inserts in preload
+ *     ops=1000000           commands after preload
+ *     mix=40,15,10,10,10,10,5   weights of Insert Find Delete FindMinPrice
+ *                           FindMaxPrice FindPriceRange PriceHike
+ *     density=0.5           fraction of id space in use after preload
+ *     vocabulary=10000      number of distinct name parts
+ *     zipf=1.0              Zipf exponent of name part popularity, 0 is uniform
+ *     nameLength=1,8        min and max name length, uniform
+ *     prices=UNIFORM        UNIFORM, NARROW or SKEWED
+ *     updates=0.5           chance that Insert of a live id only updates price
+ *     hikeWidth=100         mean id range width of PriceHike, exponential
+ *     hikeRate=1,10         min and max PriceHike rate
+ *     seed=1
+ * </pre>
+ */
+public class WorkloadGenerator {
+
+    int items = 100000;
+    int ops = 1000000;
+    int[] mix = {40, 15, 10, 10, 10, 10, 5};
+    double density = 0.5;
+    int vocabulary = 10000;
+    double zipf = 1.0;
+    int minNameLength = 1;
+    int maxNameLength = 8;
+    StoreBenchmark.PriceDistribution prices = StoreBenchmark.PriceDistribution.UNIFORM;
+    double updates = 0.5;
+    double hikeWidth = 100;
+    int minHikeRate = 1;
+    int maxHikeRate = 10;
+    long seed = 1;
+
+    private Random random;
+    private double[] zipfCdf;
+    private BitSet live;
+    private int idSpace;
+    private final StringBuilder line = new StringBuilder();
+
+    /**
+     * Sample a name part, rank 1 is the most popular
+     */
+    long namePart() {
+        double u = random.nextDouble() * zipfCdf[zipfCdf.length - 1];
+        int i = Arrays.binarySearch(zipfCdf, u);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return Math.min(i, zipfCdf.length - 1) + 1;
+    }
+
+    // distinct name parts, length uniform on [minNameLength, maxNameLength]
+    private long[] name() {
+        int length = minNameLength + random.nextInt(maxNameLength - minNameLength + 1);
+        long[] name = new long[Math.min(length, vocabulary)];
+        for (int k = 0; k < name.length; k++) {
+            long part;
+            boolean duplicate;
+            do {
+                part = namePart();
+                duplicate = false;
+                for (int j = 0; j < k; j++) {
+                    duplicate |= name[j] == part;
+                }
+            } while (duplicate);
+            name[k] = part;
+        }
+        return name;
+    }
+
+    private long id() {
+        return 1 + random.nextInt(idSpace);
+    }
+
+    private void appendPrice(long price) {
+        line.append(price / 100).append('.');
+        long cents = price % 100;
+        if (cents < 10) {
+            line.append('0');
+        }
+        line.append(cents);
+    }
+
+    private void insert(long id, boolean allowUpdate) {
+        line.append("Insert ").append(id).append(' ');
+        appendPrice(StoreBenchmark.DataSet.price(prices, random));
+        if (!(allowUpdate && live.get((int) id) && random.nextDouble() < updates)) {
+            for (long part : name()) {
+                line.append(' ').append(part);
+            }
+        }
+        line.append(" 0");
+        live.set((int) id);
+    }
+
+    private void command(int op) {
+        switch (op) {
+            case 0:
+                insert(id(), true);
+                break;
+            case 1:
+                line.append("Find ").append(id());
+                break;
+            case 2: {
+                long id = id();
+                line.append("Delete ").append(id);
+                live.clear((int) id);
+                break;
+            }
+            case 3:
+                line.append("FindMinPrice ").append(namePart());
+                break;
+            case 4:
+                line.append("FindMaxPrice ").append(namePart());
+                break;
+            case 5: {
+                long a = StoreBenchmark.DataSet.price(prices, random);
+                long b = StoreBenchmark.DataSet.price(prices, random);
+                line.append("FindPriceRange ").append(namePart()).append(' ');
+                appendPrice(Math.min(a, b));
+                line.append(' ');
+                appendPrice(Math.max(a, b));
+                break;
+            }
+            default: {
+                long l = id();
+                long width = (long) (-hikeWidth * Math.log(1 - random.nextDouble()));
+                int r = minHikeRate + random.nextInt(maxHikeRate - minHikeRate + 1);
+                line.append("PriceHike ").append(l).append(' ').append(l + width).append(' ').append(r);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Write the whole workload
+     * @param out destination, not closed
+     * @throws IOException if writing fails
+     */
+    public void generate(Writer out) throws IOException {
+        random = new Random(seed);
+        idSpace = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 1, Math.ceil(items / density)));
+        live = new BitSet(idSpace + 1);
+
+        zipfCdf = new double[vocabulary];
+        double sum = 0;
+        for (int k = 1; k <= vocabulary; k++) {
+            sum += 1 / Math.pow(k, zipf);
+            zipfCdf[k - 1] = sum;
+        }
+
+        int total = 0;
+        for (int weight : mix) {
+            total += weight;
+        }
+
+        for (int i = 0; i < items; i++) {
+            insert(id(), false);
+            flushLine(out);
+        }
+        for (int i = 0; i < ops; i++) {
+            int pick = random.nextInt(total);
+            int op = 0;
+            while (pick >= mix[op]) {
+                pick -= mix[op++];
+            }
+            command(op);
+            flushLine(out);
+        }
+    }
+
+    private void flushLine(Writer out) throws IOException {
+        line.append('\n');
+        out.append(line);
+        line.setLength(0);
+    }
+
+    private static int[] ints(String value) {
+        String[] parts = value.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Integer.parseInt(parts[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Apply one key=value option
+     */
+    void set(String key, String value) {
+        if (key.equals("items")) items = Integer.parseInt(value);
+        else if (key.equals("ops")) ops = Integer.parseInt(value);
+        else if (key.equals("mix")) mix = ints(value);
+        else if (key.equals("density")) density = Double.parseDouble(value);
+        else if (key.equals("vocabulary")) vocabulary = Integer.parseInt(value);
+        else if (key.equals("zipf")) zipf = Double.parseDouble(value);
+        else if (key.equals("nameLength")) {
+            int[] range = ints(value);
+            minNameLength = range[0];
+            maxNameLength = range[range.length - 1];
+        } else if (key.equals("prices")) prices = StoreBenchmark.PriceDistribution.valueOf(value);
+        else if (key.equals("updates")) updates = Double.parseDouble(value);
+        else if (key.equals("hikeWidth")) hikeWidth = Double.parseDouble(value);
+        else if (key.equals("hikeRate")) {
+            int[] range = ints(value);
+            minHikeRate = range[0];
+            maxHikeRate = range[range.length - 1];
+        } else if (key.equals("seed")) seed = Long.parseLong(value);
+        else throw new IllegalArgumentException("Unknown option " + key);
+    }
+
+    private void validate() {
+        if (mix.length != 7) {
+            throw new IllegalArgumentException("mix needs 7 weights");
+        }
+        if (!(density > 0 && density <= 1)) {
+            throw new IllegalArgumentException("density must be in (0, 1]");
+        }
+        if (vocabulary < 1 || minNameLength < 1 || maxNameLength < minNameLength) {
+            throw new IllegalArgumentException("Illegal vocabulary or name length");
+        }
+        if (minHikeRate > maxHikeRate) {
+            throw new IllegalArgumentException("Illegal hike rate");
+        }
+    }
+
+    public static void main(String[] args) {
+        WorkloadGenerator generator = new WorkloadGenerator();
+        String output = null;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                output = arg;
+            } else {
+                generator.set(arg.substring(0, eq), arg.substring(eq + 1));
+            }
+        }
+        generator.validate();
+
+        try {
+            Writer out;
+            if (output != null) {
+                out = new BufferedWriter(new FileWriter(output), 1 << 16);
+            } else {
+                out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+            }
+            generator.generate(out);
+            out.flush();
+            if (output != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append only log of the mutating Store calls (insert, delete, priceHike). Each
+ * call is a BinaryWorkload record in a frame of its length and CRC32:
+ * <pre>
+ *     header   magic(4) version(1)
+ *     record   length(4) crc(4) BinaryWorkload record(length)
+ * </pre>
+ * Replay stops at the first frame that does not verify, whatever the bytes
+ * left by a crash in the middle of an append happen to decode to.
+ * <p/>
+ * Records are buffered and written with one fsync per group. A group is closed
+ * when it holds groupCount records, or by a background flusher every
+ * groupMillis, whichever comes first. groupCount 1 is one fsync per call. On a
+ * crash, at most the records of the open group are lost; sync closes the group
+ * at once.
+ */
+public class WriteAheadLog implements Closeable {
+
+    static final int MAGIC = ('M' << 24) | ('D' << 16) | ('S' << 8) | 'L';
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 5;
+    // length and crc of a record
+    static final int FRAME_HEAD = 8;
+
+    private static final int WRITE_BUFFER = 1 << 20;
+
+    private final FileChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(WRITE_BUFFER);
+    private final CRC32 crc = new CRC32();
+    private final int groupCount;
+    private final ScheduledExecutorService flusher;
+
+    private int pending;            // records since last fsync
+    private long syncs;
+    private IOException failure;    // of the flusher, thrown to the next caller
+
+    /**
+     * Open log for append, a new log gets the workload header
+     * @param path        log file, created if absent, must end with a complete record
+     * @param groupCount  fsync after this many records, at least 1
+     * @param groupMillis also fsync pending records this often, 0 for count only
+     * @throws IOException if file can not be opened or is not a log
+     */
+    public WriteAheadLog(Path path, int groupCount, long groupMillis) throws IOException {
+        if (groupCount < 1) {
+            throw new IllegalArgumentException("Illegal group count: " + groupCount);
+        }
+        this.groupCount = groupCount;
+
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() == 0) {
+            out.putInt(MAGIC);
+            out.put(VERSION);
+            BinaryWorkload.drain(channel, out);
+            channel.force(true);
+        } else {
+            if (!readHeader(channel)) {
+                channel.close();
+                throw new IOException("Not a write ahead log: " + path);
+            }
+        }
+        channel.position(channel.size());
+
+        if (groupMillis > 0) {
+            flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "wal-flusher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            flusher.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    flushPending();
+                }
+            }, groupMillis, groupMillis, TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    // whether channel starts with the header of a log
+    private static boolean readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        channel.read(header, 0);
+        header.flip();
+        return header.remaining() == HEADER_SIZE && header.getInt() == MAGIC && header.get() == VERSION;
+    }
+
+    /**
+     * Run every verified record of a log against store, and cut the log at the
+     * first frame that does not verify, left by a crash in the middle of an
+     * append, so appends continue after the last good record
+     * @param path  log file
+     * @param store target store
+     * @return number of bytes dropped from the tail
+     * @throws IOException if file can not be read, is not a log, or holds a
+     *                     verified record that does not decode
+     */
+    public static long replay(Path path, Store store) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (!readHeader(channel)) {
+                throw new IOException("Not a write ahead log: " + path);
+            }
+            long end = replay(channel, store);
+            long dropped = channel.size() - end;
+            if (dropped > 0) {
+                channel.truncate(end);
+                channel.force(true);
+            }
+            return dropped;
+        } finally {
+            channel.close();
+        }
+    }
+
+    // run records after the header up to the first bad frame; offset just after the last record run
+    private static long replay(FileChannel channel, Store store) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(WRITE_BUFFER);
+        in.flip();
+        long base = HEADER_SIZE;    // offset in file of index 0 of in
+        CRC32 crc = new CRC32();
+        long[] output = new long[2];
+
+        while (true) {
+            if (in.remaining() < FRAME_HEAD) {
+                base = refill(channel, in, base);
+                if (in.remaining() < FRAME_HEAD) {
+                    break;
+                }
+            }
+            int length = in.getInt(in.position());
+            if (length <= 0 || length > in.capacity() - FRAME_HEAD) {
+                break;
+            }
+            if (in.remaining() < FRAME_HEAD + length) {
+                base = refill(channel, in, base);
+                if (in.remaining() < FRAME_HEAD + length) {
+                    break;
+                }
+            }
+
+            int start = in.position();
+            int end = start + FRAME_HEAD + length;
+            int limit = in.limit();
+            in.limit(end);
+            in.position(start + FRAME_HEAD);
+            crc.reset();
+            crc.update(in);
+            if ((int) crc.getValue() != in.getInt(start + 4)) {
+                in.limit(limit);
+                in.position(start);
+                break;
+            }
+
+            // a verified record was written whole, failing to decode it is no torn tail
+            in.position(start + FRAME_HEAD);
+            try {
+                BinaryWorkload.apply(in, store, output);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Bad record at " + (base + start));
+            } catch (IllegalStateException e) {
+                throw new IOException("Bad record at " + (base + start) + ": " + e.getMessage());
+            }
+            if (in.position() != end) {
+                throw new IOException("Bad record at " + (base + start));
+            }
+            in.limit(limit);
+        }
+        return base + in.position();
+    }
+
+    // move the unread bytes of in to its front and read the file after them;
+    // the new offset in file of index 0 of in
+    private static long refill(FileChannel channel, ByteBuffer in, long base) throws IOException {
+        base += in.position();
+        in.compact();
+        while (in.hasRemaining() && channel.read(in, base + in.position()) > 0) {
+            // until full or end of file
+        }
+        in.flip();
+        return base;
+    }
+
+    public synchronized void logInsert(long id, long price, long[] name) throws IOException {
+        int size = FRAME_HEAD + BinaryWorkload.maxInsertSize(name == null ? 0 : name.length);
+        if (size > out.capacity()) {
+            throw new IOException("Name too long of item " + id);
+        }
+        int start = begin(size);
+        BinaryWorkload.putInsert(out, id, price, name);
+        end(start);
+    }
+
+    public synchronized void logDelete(long id) throws IOException {
+        int start = begin(FRAME_HEAD + BinaryWorkload.MAX_RECORD_HEAD);
+        BinaryWorkload.putDelete(out, id);
+        end(start);
+    }
+
+    public synchronized void logPriceHike(long l, long h, int r) throws IOException {
+        int start = begin(FRAME_HEAD + BinaryWorkload.MAX_RECORD_HEAD);
+        BinaryWorkload.putPriceHike(out, l, h, r);
+        end(start);
+    }
+
+    /**
+     * Write and fsync every record logged so far
+     * @throws IOException if writing fails, now or earlier in the flusher
+     */
+    public synchronized void sync() throws IOException {
+        checkFailure();
+        BinaryWorkload.drain(channel, out);
+        channel.force(false);
+        pending = 0;
+        syncs++;
+    }
+
+    // number of fsyncs so far
+    public synchronized long syncs() {
+        return syncs;
+    }
+
+    /**
+     * Stop the flusher, sync and close the file
+     */
+    public void close() throws IOException {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+        synchronized (this) {
+            try {
+                sync();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // make room for a record of size bytes, writing out the buffer without fsync
+    private void reserve(int size) throws IOException {
+        checkFailure();
+        if (out.remaining() < size) {
+            BinaryWorkload.drain(channel, out);
+        }
+    }
+
+    // make room for a framed record of size bytes and skip its frame head; position of the frame
+    private int begin(int size) throws IOException {
+        reserve(size);
+        int start = out.position();
+        out.position(start + FRAME_HEAD);
+        return start;
+    }
+
+    // fill in the frame head at start for the record just put after it
+    private void end(int start) throws IOException {
+        int end = out.position();
+        out.limit(end);
+        out.position(start + FRAME_HEAD);
+        crc.reset();
+        crc.update(out);
+        out.limit(out.capacity());
+        out.putInt(start, end - start - FRAME_HEAD);
+        out.putInt(start + 4, (int) crc.getValue());
+        appended();
+    }
+
+    private void appended() throws IOException {
+        if (++pending >= groupCount) {
+            sync();
+        }
+    }
+
+    private synchronized void flushPending() {
+        if (pending == 0 || failure != null || !channel.isOpen()) {
+            return;
+        }
+        try {
+            sync();
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Write ahead log failed earlier", failure);
+        }
+    }
+}
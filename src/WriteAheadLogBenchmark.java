@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Write throughput of DurableStore with one fsync per call against group commit
+ * by count and by time. Each mode inserts every item of a data set into a new
+ * store, then prices are updated and items deleted, and reports calls per second
+ * and fsyncs made. The last mode reopens its directory to time recovery.
+ * <p/>
+ * java WriteAheadLogBenchmark [size=100000] [groups=1,16,256,4096] [millis=0,10] [dir=tmp]
+ */
+public class WriteAheadLogBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int size = Integer.parseInt(StoreBenchmark.param(args, "size", "100000")[0]);
+        String[] groups = StoreBenchmark.param(args, "groups", "1", "16", "256", "4096");
+        String[] millis = StoreBenchmark.param(args, "millis", "0", "10");
+        String[] dirs = StoreBenchmark.param(args, "dir");
+        Path root = dirs.length > 0 ? Paths.get(dirs[0]) : Files.createTempDirectory("wal");
+
+        StoreBenchmark.DataSet data = new StoreBenchmark.DataSet(size, 4, StoreBenchmark.PriceDistribution.UNIFORM, 1);
+        Path last = null;
+        for (String group : groups) {
+            for (String period : millis) {
+                int groupCount = Integer.parseInt(group);
+                long groupMillis = Long.parseLong(period);
+                if (groupCount == 1 && groupMillis > 0) {
+                    // every call is synced already, the flusher adds nothing
+                    continue;
+                }
+
+                Path dir = root.resolve("group" + groupCount + "-millis" + groupMillis);
+                clear(dir);
+                DurableStore store = new DurableStore(dir, groupCount, groupMillis);
+                long start = System.nanoTime();
+                for (int i = 0; i < size; i++) {
+                    store.insert(data.ids[i], data.prices[i], data.names[i].clone());
+                }
+                for (int i = 0; i < size; i += 2) {
+                    store.insert(data.ids[i], data.prices[i] + 1, null);
+                }
+                for (int i = 1; i < size; i += 2) {
+                    store.delete(data.ids[i]);
+                }
+                store.sync();
+                double seconds = (System.nanoTime() - start) / 1e9;
+                store.close();
+
+                long calls = size + size / 2 + size / 2;
+                System.out.println(String.format("group=%-5d millis=%-4d %12.0f calls/s %10.1f us/call %8d bytes logged",
+                        groupCount, groupMillis, calls / seconds, seconds * 1e6 / calls, Files.size(dir.resolve("wal-0"))));
+                last = dir;
+            }
+        }
+
+        if (last != null) {
+            long start = System.nanoTime();
+            DurableStore recovered = new DurableStore(last, 1, 0);
+            System.out.println(String.format("recovery of %s: %.1f ms, find(%d) = %d", last.getFileName(),
+                    (System.nanoTime() - start) / 1e6, data.ids[0], recovered.find(data.ids[0])));
+            recovered.close();
+        }
+    }
+
+    // delete every file in dir, which is created if absent
+    private static void clear(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        DirectoryStream<Path> files = Files.newDirectoryStream(dir);
+        try {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        } finally {
+            files.close();
+        }
+    }
+}